@@ -0,0 +1,138 @@
+package io.wispforest.lavendermd;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Differential check of {@link VectorTriggerScanner} against a plain scalar scan. Random trigger
+ * sets, made up of single characters as well as ranges and including characters at and above
+ * {@code 0x8000} (which are negative once compared as signed lanes), are compiled and used to
+ * scan random inputs of every length around {@link VectorTriggerScanner#MIN_INPUT_LENGTH}, so that
+ * the tail which does not fill an entire vector takes on every length. Every trigger the vector
+ * scanner reports must be the one the scalar scan finds - if any is not, the process exits with status 1
+ * <p>
+ * This lives with the benchmarks since it needs the {@code jdk.incubator.vector}
+ * module at runtime, which the {@code vectorCheck} task adds
+ */
+public final class VectorScannerCheck {
+
+    private static final int TRIGGER_SETS = 2000;
+    private static final int INPUTS_PER_SET = 16;
+
+    private static final int MAX_MISMATCHES = 10;
+
+    public static void main(String[] args) {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            System.err.println("The jdk.incubator.vector module must be added with --add-modules");
+            System.exit(1);
+        }
+
+        var random = new Random(args.length > 0 ? Long.parseLong(args[0]) : 0x5CA7_7E25L);
+        var mismatches = new ArrayList<String>();
+        int compiledSets = 0, scans = 0;
+
+        for (int set = 0; set < TRIGGER_SETS && mismatches.size() < MAX_MISMATCHES; set++) {
+            var triggers = triggers(random);
+
+            var vector = VectorTriggerScanner.compile(triggers.toCharArray());
+            if (vector == null) continue;
+            compiledSets++;
+
+            for (int i = 0; i < INPUTS_PER_SET && mismatches.size() < MAX_MISMATCHES; i++) {
+                var input = input(random, triggers, random.nextInt(VectorTriggerScanner.MIN_INPUT_LENGTH + 160));
+
+                Lexer.TriggerScanner scalar = from -> nextTrigger(triggers, input, from);
+                var scanner = vector.scannerFor(input, scalar);
+
+                // scan from every position, the way the lexer resumes after each token
+                for (int from = 0; from <= input.length(); from++) {
+                    int expected = scalar.nextTrigger(from), actual = scanner.nextTrigger(from);
+                    scans++;
+
+                    if (expected == actual) continue;
+                    mismatches.add(String.format(
+                            "triggers %s, input of length %d from %d: expected %d, got %d%n  input: %s",
+                            escape(triggers), input.length(), from, expected, actual, escape(input)
+                    ));
+                    break;
+                }
+            }
+        }
+
+        System.out.printf("Compared %d scans over %d compiled trigger sets%n", scans, compiledSets);
+        if (mismatches.isEmpty()) return;
+
+        mismatches.forEach(System.out::println);
+        System.exit(1);
+    }
+
+    private static String triggers(Random random) {
+        var triggers = new StringBuilder();
+
+        for (int i = random.nextInt(10); i >= 0; i--) {
+            addTrigger(triggers, randomChar(random));
+        }
+
+        for (int i = random.nextInt(4); i > 0; i--) {
+            // occasionally straddle the boundary at which signed lanes wrap around
+            char start = random.nextInt(4) == 0 ? (char) (0x7FFF - random.nextInt(4)) : randomChar(random);
+            int length = 3 + random.nextInt(6);
+
+            for (int c = start; c < start + length && c <= Character.MAX_VALUE; c++) {
+                addTrigger(triggers, (char) c);
+            }
+        }
+
+        return triggers.toString();
+    }
+
+    private static void addTrigger(StringBuilder triggers, char trigger) {
+        if (triggers.indexOf(String.valueOf(trigger)) == -1) triggers.append(trigger);
+    }
+
+    private static String input(Random random, String triggers, int length) {
+        var input = new char[length];
+        for (int i = 0; i < length; i++) {
+            input[i] = switch (random.nextInt(16)) {
+                // triggers and their direct neighbours, which sit right outside of ranges
+                case 0 -> triggers.charAt(random.nextInt(triggers.length()));
+                case 1 -> (char) (triggers.charAt(random.nextInt(triggers.length())) + 1);
+                case 2 -> (char) (triggers.charAt(random.nextInt(triggers.length())) - 1);
+                case 3, 4 -> randomChar(random);
+                default -> (char) ('a' + random.nextInt(26));
+            };
+        }
+
+        // keep long stretches free of triggers every now and then, so
+        // that entire vectors are scanned without finding anything
+        if (random.nextBoolean() && length > 0) {
+            int start = random.nextInt(length);
+            for (int i = start; i < Math.min(length, start + 128); i++) input[i] = 'a';
+        }
+
+        return new String(input);
+    }
+
+    private static char randomChar(Random random) {
+        return switch (random.nextInt(4)) {
+            case 0 -> (char) (0x20 + random.nextInt(0x60));
+            case 1 -> (char) (0x80 + random.nextInt(0x7F80));
+            case 2 -> (char) (0x8000 + random.nextInt(0x8000));
+            default -> (char) (0xFFF0 + random.nextInt(0x10));
+        };
+    }
+
+    private static int nextTrigger(String triggers, String input, int from) {
+        for (int i = from; i < input.length(); i++) {
+            if (triggers.indexOf(input.charAt(i)) != -1) return i;
+        }
+
+        return input.length();
+    }
+
+    private static String escape(String string) {
+        var escaped = new StringBuilder();
+        string.chars().forEach(c -> escaped.append(c >= 0x20 && c < 0x7F ? String.valueOf((char) c) : String.format("\\u%04X", c)));
+        return escaped.toString();
+    }
+}
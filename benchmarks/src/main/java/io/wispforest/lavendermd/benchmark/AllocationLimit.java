@@ -0,0 +1,20 @@
+package io.wispforest.lavendermd.benchmark;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * The most a benchmark may allocate per operation, as measured by the GC profiler's
+ * normalized allocation rate. {@link CompareResults} fails if a result exceeds it
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface AllocationLimit {
+
+    /**
+     * @return The limit in bytes per operation
+     */
+    long value();
+}
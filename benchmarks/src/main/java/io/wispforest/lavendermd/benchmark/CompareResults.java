@@ -0,0 +1,192 @@
+package io.wispforest.lavendermd.benchmark;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compare two JSON results files written by JMH, printing the score and the normalized allocation
+ * rate of every benchmark present in both, along with their relative change from the baseline. If
+ * only a single file is given, nothing is compared
+ * <p>
+ * Either way, the results of the last file are checked against what their benchmarks declare through
+ * {@link AllocationLimit} and {@link ExpectedScaling} - if any of it is violated, the process exits with status 1
+ */
+public final class CompareResults {
+
+    // older versions of JMH prefix the names of profiler metrics with a middle dot
+    private static final String ALLOCATION_METRIC = "gc.alloc.rate.norm";
+
+    // the allocation rate of a benchmark which does not allocate
+    // at all is still measured at a small fraction of a byte
+    private static final double ALLOCATION_NOISE = 1;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1 && args.length != 2) {
+            System.err.println("Usage: CompareResults [baseline.json] <candidate.json>");
+            System.exit(1);
+        }
+
+        var candidate = read(Path.of(args[args.length - 1]));
+        if (args.length == 2) compare(read(Path.of(args[0])), candidate);
+
+        var violations = checkDeclarations(candidate);
+        if (violations.isEmpty()) return;
+
+        System.out.println();
+        violations.forEach(System.out::println);
+        System.exit(1);
+    }
+
+    private static void compare(Map<String, Result> baseline, Map<String, Result> candidate) {
+        System.out.printf("%-60s %14s %14s %8s %14s %14s %8s%n", "Benchmark", "Baseline", "Candidate", "Change", "Baseline B/op", "Candidate B/op", "Change");
+        candidate.forEach((name, result) -> {
+            var previous = baseline.get(name);
+            if (previous == null) return;
+
+            System.out.printf(
+                    "%-60s %14.3f %14.3f %8s %14.1f %14.1f %8s%n",
+                    name,
+                    previous.score, result.score, change(previous.score, result.score),
+                    previous.allocation, result.allocation, change(previous.allocation, result.allocation)
+            );
+        });
+
+        for (var name : candidate.keySet()) {
+            if (!baseline.containsKey(name)) System.out.println("Not in baseline: " + name);
+        }
+
+        for (var name : baseline.keySet()) {
+            if (!candidate.containsKey(name)) System.out.println("Not in candidate: " + name);
+        }
+    }
+
+    private static List<String> checkDeclarations(Map<String, Result> results) {
+        var violations = new ArrayList<String>();
+
+        // results of the same benchmark which only differ in the parameter
+        // the benchmark scales with, keyed by the value of that parameter
+        var scalingSeries = new LinkedHashMap<String, TreeMap<Double, Result>>();
+
+        results.forEach((name, result) -> {
+            var method = benchmarkMethod(result.benchmark);
+            if (method == null) return;
+
+            var limit = method.getAnnotation(AllocationLimit.class);
+            if (limit != null) {
+                if (Double.isNaN(result.allocation)) {
+                    violations.add(name + " declares an allocation limit, but its allocation rate was not measured - run it with -prof gc");
+                } else if (result.allocation > limit.value() + ALLOCATION_NOISE) {
+                    violations.add(String.format("%s allocated %.1f B/op, more than its limit of %d B/op", name, result.allocation, limit.value()));
+                }
+            }
+
+            var scaling = method.getAnnotation(ExpectedScaling.class);
+            if (scaling != null) {
+                var value = result.params.get(scaling.param());
+                if (value == null) {
+                    violations.add(name + " declares scaling with '" + scaling.param() + "', which is not one of its parameters");
+                    return;
+                }
+
+                var otherParams = new TreeMap<>(result.params);
+                otherParams.remove(scaling.param());
+
+                scalingSeries.computeIfAbsent(displayName(result.benchmark, otherParams), $ -> new TreeMap<>()).put(Double.parseDouble(value), result);
+            }
+        });
+
+        scalingSeries.forEach((series, points) -> {
+            if (points.size() < 2) return;
+
+            var scaling = benchmarkMethod(points.firstEntry().getValue().benchmark).getAnnotation(ExpectedScaling.class);
+
+            double min = Double.POSITIVE_INFINITY, max = 0;
+            for (var point : points.entrySet()) {
+                double normalized = point.getValue().score / Math.pow(point.getKey(), scaling.degree());
+                min = Math.min(min, normalized);
+                max = Math.max(max, normalized);
+            }
+
+            if (max > min * scaling.tolerance()) {
+                var scores = new StringBuilder();
+                points.forEach((value, point) -> scores.append(String.format(" %s=%s: %.3f", scaling.param(), formatParam(value), point.score)));
+
+                violations.add(String.format(
+                        "%s does not scale with degree %d in '%s', normalized scores differ by a factor of %.1f (at most %.1f expected) -%s",
+                        series, scaling.degree(), scaling.param(), max / min, scaling.tolerance(), scores
+                ));
+            }
+        });
+
+        return violations;
+    }
+
+    private static Method benchmarkMethod(String benchmark) {
+        int separator = benchmark.lastIndexOf('.');
+
+        try {
+            var benchmarkClass = Class.forName(benchmark.substring(0, separator));
+            for (var method : benchmarkClass.getMethods()) {
+                if (method.getName().equals(benchmark.substring(separator + 1))) return method;
+            }
+        } catch (ClassNotFoundException e) {
+            // results of a benchmark which has since been removed
+        }
+
+        return null;
+    }
+
+    private static Map<String, Result> read(Path file) throws IOException {
+        var results = new LinkedHashMap<String, Result>();
+
+        for (var element : JsonParser.parseString(Files.readString(file)).getAsJsonArray()) {
+            var benchmark = element.getAsJsonObject();
+            var benchmarkName = benchmark.get("benchmark").getAsString();
+
+            // sort the parameters so that their order in the file does not matter
+            var params = new TreeMap<String, String>();
+            if (benchmark.get("params") instanceof JsonObject paramsObject) {
+                paramsObject.entrySet().forEach(entry -> params.put(entry.getKey(), entry.getValue().getAsString()));
+            }
+
+            double allocation = Double.NaN;
+            if (benchmark.get("secondaryMetrics") instanceof JsonObject secondaryMetrics) {
+                for (var metric : secondaryMetrics.entrySet()) {
+                    if (!metric.getKey().endsWith(ALLOCATION_METRIC)) continue;
+                    allocation = metric.getValue().getAsJsonObject().get("score").getAsDouble();
+                }
+            }
+
+            results.put(displayName(benchmarkName, params), new Result(benchmarkName, params, benchmark.getAsJsonObject("primaryMetric").get("score").getAsDouble(), allocation));
+        }
+
+        return results;
+    }
+
+    private static String change(double baseline, double candidate) {
+        if (Double.isNaN(baseline) || Double.isNaN(candidate) || baseline == 0) return "-";
+        return String.format("%+.1f%%", (candidate - baseline) / baseline * 100);
+    }
+
+    private static String displayName(String benchmark, Map<String, String> params) {
+        var name = new StringBuilder(benchmark.replace("io.wispforest.lavendermd.benchmark.", ""));
+        params.forEach((param, value) -> name.append(':').append(param).append('=').append(value));
+        return name.toString();
+    }
+
+    private static String formatParam(double value) {
+        return value == Math.rint(value) ? String.valueOf((long) value) : String.valueOf(value);
+    }
+
+    private record Result(String benchmark, Map<String, String> params, double score, double allocation) {}
+}
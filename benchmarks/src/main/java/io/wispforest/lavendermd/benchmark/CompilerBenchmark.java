@@ -0,0 +1,47 @@
+package io.wispforest.lavendermd.benchmark;
+
+import io.wispforest.lavendermd.Document;
+import io.wispforest.lavendermd.MarkdownProcessor;
+import net.minecraft.text.Text;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compiling the documents of every input of a corpus, which
+ * are parsed up front, into text using the {@code TextCompiler}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompilerBenchmark {
+
+    @Param
+    public Corpus corpus;
+
+    private MarkdownProcessor<Text> processor;
+    private List<Document> documents;
+
+    @Setup
+    public void setup() {
+        this.processor = MarkdownProcessor.richText(200);
+
+        this.documents = new ArrayList<>();
+        for (var input : this.corpus.inputs()) {
+            this.documents.add(this.processor.parse(input));
+        }
+    }
+
+    @Benchmark
+    public void compile(Blackhole blackhole) {
+        for (var document : this.documents) {
+            blackhole.consume(this.processor.compile(document));
+        }
+    }
+}
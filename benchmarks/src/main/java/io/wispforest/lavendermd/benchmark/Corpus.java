@@ -0,0 +1,168 @@
+package io.wispforest.lavendermd.benchmark;
+
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * The inputs all benchmarks are run against. Every corpus is generated from
+ * a fixed seed, so that the results of separate runs remain comparable
+ */
+public enum Corpus {
+
+    /**
+     * Many short messages as players type them into chat - mostly
+     * plain text, with the occasional bit of formatting or a link
+     */
+    CHAT(random -> {
+        var messages = new String[512];
+        for (int i = 0; i < messages.length; i++) {
+            var message = new StringBuilder(words(random, 2 + random.nextInt(14)));
+
+            switch (random.nextInt(8)) {
+                case 0 -> message.append(" **").append(words(random, 1 + random.nextInt(3))).append("**");
+                case 1 -> message.append(" *").append(words(random, 1 + random.nextInt(3))).append("*");
+                case 2 -> message.insert(0, "{gold}").append("{}");
+                case 3 -> message.append(" [here](https://wispforest.io/docs)");
+                case 4 -> message.append(" ~~").append(words(random, 2)).append("~~");
+            }
+
+            messages[i] = message.toString();
+        }
+
+        return messages;
+    }),
+
+    /**
+     * A few long guidebook pages, which use every feature
+     * in the way the entries of a guidebook usually do
+     */
+    GUIDEBOOK(random -> {
+        var pages = new String[8];
+        for (int i = 0; i < pages.length; i++) {
+            var page = new StringBuilder();
+
+            for (int section = 0; section < 12; section++) {
+                page.append("**").append(words(random, 3)).append("**\n\n");
+
+                for (int sentence = 0; sentence < 6; sentence++) {
+                    page.append(capitalize(words(random, 8 + random.nextInt(10))));
+
+                    switch (random.nextInt(6)) {
+                        case 0 -> page.append(" with *").append(words(random, 2)).append('*');
+                        case 1 -> page.append(", see [").append(words(random, 2)).append("](https://wispforest.io/lavender/").append(section).append(')');
+                        case 2 -> page.append(" in {#5CE1E6}").append(words(random, 2)).append("{}");
+                        case 3 -> page.append(" __").append(words(random, 1)).append("__");
+                    }
+
+                    page.append(". ");
+                }
+
+                page.append("\n\n");
+
+                switch (section % 4) {
+                    case 0 -> {
+                        for (int item = 1; item <= 4; item++) {
+                            page.append(item).append(". ").append(capitalize(words(random, 6))).append('\n');
+                            if (item % 2 == 0) page.append("   - ").append(words(random, 4)).append('\n');
+                        }
+                    }
+                    case 1 -> page.append("> ").append(capitalize(words(random, 20))).append('\n');
+                    case 2 -> page.append("---\n");
+                    case 3 -> {
+                        for (int item = 0; item < 5; item++) {
+                            page.append("- **").append(words(random, 1)).append("**: ").append(words(random, 7)).append('\n');
+                        }
+                    }
+                }
+
+                page.append('\n');
+            }
+
+            pages[i] = page.toString();
+        }
+
+        return pages;
+    }),
+
+    /**
+     * Lists and block quotes nested as deeply as a
+     * player might try to, with formatting inside
+     */
+    NESTED(random -> {
+        var documents = new String[8];
+        for (int i = 0; i < documents.length; i++) {
+            var document = new StringBuilder();
+
+            for (int depth = 0; depth < 48; depth++) {
+                document.append("  ".repeat(depth)).append("- *").append(words(random, 3)).append("*\n");
+            }
+
+            document.append('\n');
+            for (int depth = 1; depth <= 48; depth++) {
+                document.append("> ".repeat(depth)).append("**").append(words(random, 3)).append("**\n");
+            }
+
+            document.append('\n');
+            for (int depth = 1; depth <= 24; depth++) {
+                document.append("> ".repeat(depth)).append("- {red}").append(words(random, 2)).append("{}\n");
+            }
+
+            documents[i] = document.toString();
+        }
+
+        return documents;
+    }),
+
+    /**
+     * Inputs made up of delimiters which are opened but never closed, which
+     * make the parser attempt, and abandon, a construct at every single one
+     */
+    UNCLOSED(random -> new String[]{
+            "*".repeat(4096),
+            "**a ".repeat(2048),
+            "~~a __b ".repeat(1024),
+            "[".repeat(4096),
+            "[a](".repeat(2048),
+            "{red}".repeat(1024),
+            "{#".repeat(2048),
+            "*a [b {red}c __d ~~e ".repeat(512),
+            "> - ".repeat(1024) + "*" + "a".repeat(4096)
+    });
+
+    private final String[] inputs;
+
+    Corpus(Function<Random, String[]> generator) {
+        this.inputs = generator.apply(new Random(0x1A7E_4DE7L));
+    }
+
+    /**
+     * @return The inputs of this corpus. The array is shared and must not be modified
+     */
+    public String[] inputs() {
+        return this.inputs;
+    }
+
+    private static String words(Random random, int count) {
+        var words = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i != 0) words.append(' ');
+            words.append(Vocabulary.WORDS[random.nextInt(Vocabulary.WORDS.length)]);
+        }
+
+        return words.toString();
+    }
+
+    private static String capitalize(String words) {
+        return Character.toUpperCase(words.charAt(0)) + words.substring(1);
+    }
+
+    // enum constants are constructed before the static fields of the
+    // enum are initialized, so the generators can't use any of them
+    private static final class Vocabulary {
+        static final String[] WORDS = {
+                "lavender", "markdown", "block", "item", "the", "of", "and", "a", "to", "in", "is",
+                "you", "that", "it", "craft", "enchant", "diamond", "redstone", "guide", "entry",
+                "recipe", "chapter", "with", "this", "for", "on", "are", "as", "be", "at", "one"
+        };
+    }
+}
@@ -0,0 +1,34 @@
+package io.wispforest.lavendermd.benchmark;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * How the score of a benchmark grows with one of its numeric parameters. {@link CompareResults}
+ * divides the score measured for every value of that parameter by the value raised to {@link #degree()},
+ * and fails if the largest of these normalized scores exceeds the smallest by more than {@link #tolerance()}
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface ExpectedScaling {
+
+    /**
+     * @return The name of the parameter the score scales with
+     */
+    String param();
+
+    /**
+     * @return The degree of the polynomial the score grows like,
+     * {@code 1} for linear growth
+     */
+    int degree() default 1;
+
+    /**
+     * @return The factor by which normalized scores may differ, which must
+     * absorb fixed costs as well as noise but stay well below the factor
+     * between the smallest and the largest value of the parameter
+     */
+    double tolerance() default 2;
+}
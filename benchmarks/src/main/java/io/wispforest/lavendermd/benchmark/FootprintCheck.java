@@ -0,0 +1,68 @@
+package io.wispforest.lavendermd.benchmark;
+
+import io.wispforest.lavendermd.FlatTree;
+import io.wispforest.lavendermd.Lexer;
+import io.wispforest.lavendermd.MarkdownProcessor;
+import io.wispforest.lavendermd.Parser;
+import io.wispforest.lavendermd.PassPipeline;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.util.ArrayList;
+
+/**
+ * Measure the retained size of the ASTs of every corpus, both as the tree of nodes the parser
+ * produces (after the default passes, like processors apply them) and as the {@link FlatTree}
+ * documents keep, by walking the object graph reachable from each with JOL. The source text
+ * text nodes keep a view into counts towards the node tree, since the tree keeps it alive
+ * <p>
+ * Objects reachable from both representations - the styles and identifiers in node payloads, which
+ * flat trees share with the nodes they were created from - are counted towards both. If the flat
+ * trees of any corpus retain as much as its node trees or more, the process exits with status 1
+ */
+public final class FootprintCheck {
+
+    public static void main(String[] args) {
+        var lexer = new Lexer();
+        var parser = new Parser();
+
+        for (var feature : MarkdownProcessor.richText(200).installedFeatures()) {
+            feature.registerTokens(lexer);
+            feature.registerNodes(parser);
+        }
+
+        lexer.freeze();
+        parser.freeze();
+
+        var violations = new ArrayList<String>();
+
+        System.out.printf("%-12s %8s %14s %14s %14s %8s%n", "Corpus", "Inputs", "Source B", "Node tree B", "Flat tree B", "Ratio");
+        for (var corpus : Corpus.values()) {
+            var inputs = corpus.inputs();
+            var nodeTrees = new Object[inputs.length];
+            var flatTrees = new Object[inputs.length];
+
+            long sourceSize = 0;
+            for (int i = 0; i < inputs.length; i++) {
+                var root = PassPipeline.DEFAULT.apply(parser.parse(lexer.lex(inputs[i])));
+
+                nodeTrees[i] = root;
+                flatTrees[i] = FlatTree.of(root);
+                sourceSize += GraphLayout.parseInstance(inputs[i]).totalSize();
+            }
+
+            long nodeTreeSize = GraphLayout.parseInstance(nodeTrees).totalSize();
+            long flatTreeSize = GraphLayout.parseInstance(flatTrees).totalSize();
+
+            System.out.printf("%-12s %8d %14d %14d %14d %8.2f%n", corpus, inputs.length, sourceSize, nodeTreeSize, flatTreeSize, (double) flatTreeSize / nodeTreeSize);
+            if (flatTreeSize >= nodeTreeSize) {
+                violations.add(String.format("Flat trees of %s retain %d B, no less than the %d B of its node trees", corpus, flatTreeSize, nodeTreeSize));
+            }
+        }
+
+        if (violations.isEmpty()) return;
+
+        System.out.println();
+        violations.forEach(System.out::println);
+        System.exit(1);
+    }
+}
@@ -0,0 +1,51 @@
+package io.wispforest.lavendermd.benchmark;
+
+import io.wispforest.lavendermd.Lexer;
+import io.wispforest.lavendermd.MarkdownProcessor;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lexing every input of a corpus into its tokens, both with and without
+ * the vectorized backend for scanning runs of plain text
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LexerBenchmark {
+
+    @Param
+    public Corpus corpus;
+
+    private Lexer lexer;
+
+    @Setup
+    public void setup() {
+        this.lexer = new Lexer();
+        for (var feature : MarkdownProcessor.richText(200).installedFeatures()) {
+            feature.registerTokens(this.lexer);
+        }
+
+        this.lexer.freeze();
+    }
+
+    @Benchmark
+    public void lex(Blackhole blackhole) {
+        for (var input : this.corpus.inputs()) {
+            blackhole.consume(this.lexer.lex(input));
+        }
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Dlavendermd.disableVectorScanning=true")
+    public void lexScalar(Blackhole blackhole) {
+        for (var input : this.corpus.inputs()) {
+            blackhole.consume(this.lexer.lex(input));
+        }
+    }
+}
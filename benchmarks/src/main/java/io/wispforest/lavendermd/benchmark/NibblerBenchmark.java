@@ -0,0 +1,52 @@
+package io.wispforest.lavendermd.benchmark;
+
+import io.wispforest.lavendermd.util.StringNibbler;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Walking a guidebook page with the primitive functions of {@link StringNibbler}, the way
+ * lex-functions do - none of them may allocate, which {@link AllocationLimit} enforces. The
+ * nibbler is reused across invocations, so that its lazily built indices are allocated only once
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NibblerBenchmark {
+
+    private StringNibbler nibbler;
+
+    @Setup
+    public void setup() {
+        this.nibbler = new StringNibbler(String.join("\n\n", Corpus.GUIDEBOOK.inputs()));
+    }
+
+    @Benchmark
+    @AllocationLimit(0)
+    public int primitives() {
+        var nibbler = this.nibbler;
+        nibbler.reset(0);
+
+        int checksum = 0;
+        for (int c = nibbler.read(); c != StringNibbler.EOF; c = nibbler.read()) {
+            switch (c) {
+                case '*', '_', '~' -> {
+                    int mark = nibbler.mark();
+                    if (nibbler.tryConsume((char) c) && !nibbler.expect(0, ' ')) checksum++;
+                    nibbler.reset(mark);
+                }
+                case '{' -> checksum += nibbler.nextIndexOf('}');
+                case '[' -> checksum += nibbler.expect(0, "http") ? 1 : nibbler.peekAt(1);
+                case '-', '>' -> {
+                    if (nibbler.isOnlyWhitespaceSinceLineStart()) checksum += nibbler.column();
+                }
+            }
+        }
+
+        return checksum;
+    }
+}
@@ -0,0 +1,56 @@
+package io.wispforest.lavendermd.benchmark;
+
+import io.wispforest.lavendermd.Lexer;
+import io.wispforest.lavendermd.MarkdownProcessor;
+import io.wispforest.lavendermd.Parser;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the tokens of every input of a corpus, which are lexed up front - tokens
+ * are not modified by parsing, so the same lists are parsed in every invocation
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Param
+    public Corpus corpus;
+
+    private Parser parser;
+    private List<List<Lexer.Token>> tokens;
+
+    @Setup
+    public void setup() {
+        var lexer = new Lexer();
+        this.parser = new Parser();
+
+        for (var feature : MarkdownProcessor.richText(200).installedFeatures()) {
+            feature.registerTokens(lexer);
+            feature.registerNodes(this.parser);
+        }
+
+        lexer.freeze();
+        this.parser.freeze();
+
+        this.tokens = new ArrayList<>();
+        for (var input : this.corpus.inputs()) {
+            this.tokens.add(lexer.lex(input));
+        }
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) {
+        for (var tokens : this.tokens) {
+            blackhole.consume(this.parser.parse(tokens));
+        }
+    }
+}
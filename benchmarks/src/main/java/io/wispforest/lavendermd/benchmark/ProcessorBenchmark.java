@@ -0,0 +1,51 @@
+package io.wispforest.lavendermd.benchmark;
+
+import io.wispforest.lavendermd.MarkdownProcessor;
+import io.wispforest.lavendermd.ProcessingListener;
+import net.minecraft.text.Text;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Processing every input of a corpus from start to finish, either without a
+ * listener - which must cost next to nothing over processors from before listeners
+ * existed - or with one, which shows the cost of collecting the reports
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProcessorBenchmark {
+
+    @Param
+    public Corpus corpus;
+
+    @Param({"none", "reporting"})
+    public String listener;
+
+    private MarkdownProcessor<Text> processor;
+
+    // written by the reporting listener, so that
+    // collecting the reports can't be optimized away
+    private volatile ProcessingListener.Report lastReport;
+
+    @Setup
+    public void setup() {
+        this.processor = MarkdownProcessor.richText(200).copyWith(switch (this.listener) {
+            case "none" -> ProcessingListener.NONE;
+            case "reporting" -> (ProcessingListener) report -> this.lastReport = report;
+            default -> throw new IllegalArgumentException("Unknown listener: " + this.listener);
+        });
+    }
+
+    @Benchmark
+    public void process(Blackhole blackhole) {
+        for (var input : this.corpus.inputs()) {
+            blackhole.consume(this.processor.process(input));
+        }
+    }
+}
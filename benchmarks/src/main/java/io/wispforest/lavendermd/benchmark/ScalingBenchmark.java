@@ -0,0 +1,55 @@
+package io.wispforest.lavendermd.benchmark;
+
+import io.wispforest.lavendermd.Lexer;
+import io.wispforest.lavendermd.MarkdownProcessor;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lexing inputs made up of nothing but constructs which are opened and never closed, at
+ * increasing lengths. Every lex-function looking for the missing delimiter must reject its
+ * construct without scanning the rest of the input, so lexing must take time linear in the length
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScalingBenchmark {
+
+    private static final String[] UNCLOSED_CONSTRUCTS = {
+            "{", "{#", "[", "](", "[a](", "![a](", "<", "**a ", "*a [b {red}c __d ~~e "
+    };
+
+    @Param({"4096", "16384", "65536"})
+    public int repetitions;
+
+    private Lexer lexer;
+    private String[] inputs;
+
+    @Setup
+    public void setup() {
+        this.lexer = new Lexer();
+        for (var feature : MarkdownProcessor.richText(200).installedFeatures()) {
+            feature.registerTokens(this.lexer);
+        }
+
+        this.lexer.freeze();
+
+        this.inputs = new String[UNCLOSED_CONSTRUCTS.length];
+        for (int i = 0; i < UNCLOSED_CONSTRUCTS.length; i++) {
+            this.inputs[i] = UNCLOSED_CONSTRUCTS[i].repeat(this.repetitions);
+        }
+    }
+
+    @Benchmark
+    @ExpectedScaling(param = "repetitions", tolerance = 3)
+    public void lexUnclosed(Blackhole blackhole) {
+        for (var input : this.inputs) {
+            blackhole.consume(this.lexer.lex(input));
+        }
+    }
+}
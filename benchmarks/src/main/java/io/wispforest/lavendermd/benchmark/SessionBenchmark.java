@@ -0,0 +1,46 @@
+package io.wispforest.lavendermd.benchmark;
+
+import io.wispforest.lavendermd.MarkdownProcessor;
+import io.wispforest.lavendermd.MarkdownSession;
+import net.minecraft.text.Text;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Typing, and then deleting, a character in the middle of guidebooks of increasing
+ * length in an editing session. Only the blocks around the edit are lexed and parsed
+ * again, so the cost of an edit should grow far slower than the document
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionBenchmark {
+
+    @Param({"1", "8", "64"})
+    public int pages;
+
+    private MarkdownSession<Text> session;
+    private int editOffset;
+
+    @Setup
+    public void setup() {
+        var guidebook = Corpus.GUIDEBOOK.inputs();
+
+        var document = new StringBuilder();
+        for (int page = 0; page < this.pages; page++) {
+            document.append(guidebook[page % guidebook.length]).append("\n\n");
+        }
+
+        this.session = MarkdownProcessor.richText(200).openSession(document.toString());
+        this.editOffset = this.session.text().indexOf(' ', this.session.text().length() / 2);
+    }
+
+    @Benchmark
+    public MarkdownSession<Text> typeAndDelete() {
+        return this.session.edit(this.editOffset, 0, "x").edit(this.editOffset, 1, "");
+    }
+}
@@ -0,0 +1,85 @@
+package io.wispforest.lavendermd.benchmark;
+
+import io.wispforest.lavendermd.MarkdownProcessor;
+import io.wispforest.lavendermd.ProcessingLimits;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Check that editing sessions compile to the same result as processing their text from scratch. Documents
+ * made of two random inputs from the corpora are opened in a session and edited randomly - with small
+ * insertions and removals of characters which are likely to change the structure of the document, applied
+ * either through {@code edit} or {@code update} - and after every edit, the session is compiled and
+ * compared to processing its text with the session's processor. If any result differs, the process exits
+ * with status 1
+ * <p>
+ * Every other document is processed with a limited nesting depth, which is the only limit sessions apply
+ */
+public final class SessionCheck {
+
+    private static final int DOCUMENTS = 300;
+    private static final int EDITS = 40;
+
+    private static final String ALPHABET = "*_~{}[]()!->#\\\n\n\n 1.ab red";
+    private static final int MAX_FAILURES = 10;
+
+    public static void main(String[] args) {
+        var random = new Random(7);
+
+        var inputs = new ArrayList<String>();
+        for (var corpus : Corpus.values()) Collections.addAll(inputs, corpus.inputs());
+
+        var processors = List.of(
+                MarkdownProcessor.richText(40),
+                MarkdownProcessor.richText(40).copyWith(ProcessingLimits.NONE.withMaxNestingDepth(4))
+        );
+
+        var failures = new ArrayList<String>();
+        int checks = 0;
+
+        for (int document = 0; document < DOCUMENTS; document++) {
+            var processor = processors.get(document % processors.size());
+
+            var text = inputs.get(random.nextInt(inputs.size())) + "\n\n" + inputs.get(random.nextInt(inputs.size()));
+            var session = processor.openSession(text);
+
+            for (int edit = 0; edit < EDITS; edit++) {
+                int offset = random.nextInt(text.length() + 1);
+                int removedLength = random.nextInt(Math.min(4, text.length() - offset) + 1);
+
+                var inserted = new StringBuilder();
+                for (int i = random.nextInt(4); i > 0; i--) inserted.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+
+                text = text.substring(0, offset) + inserted + text.substring(offset + removedLength);
+                if (random.nextBoolean()) {
+                    session.edit(offset, removedLength, inserted.toString());
+                } else {
+                    session.update(text);
+                }
+
+                checks++;
+                if (!session.text().equals(text)) {
+                    failures.add("Session text diverged after edit " + edit + " of document " + document);
+                    break;
+                }
+
+                // texts are compared through their string form, which includes their style and siblings
+                var expected = processor.process(text).toString();
+                var actual = session.compile().toString();
+                if (!actual.equals(expected)) {
+                    failures.add("Session result differs after edit " + edit + " of document " + document + ":\n  text:     " + text.replace("\n", "\\n") + "\n  expected: " + expected + "\n  actual:   " + actual);
+                }
+            }
+        }
+
+        System.out.printf("Compared %d edits across %d documents, %d differed%n", checks, DOCUMENTS, failures.size());
+        if (failures.isEmpty()) return;
+
+        System.out.println();
+        failures.stream().limit(MAX_FAILURES).forEach(System.out::println);
+        System.exit(1);
+    }
+}
@@ -0,0 +1,189 @@
+package io.wispforest.lavendermd.benchmark;
+
+import io.wispforest.lavendermd.Lexer;
+import io.wispforest.lavendermd.MarkdownProcessor;
+import io.wispforest.lavendermd.PassPipeline;
+import io.wispforest.lavendermd.ProcessingLimits;
+import io.wispforest.lavendermd.ProcessingListener;
+import io.wispforest.lavendermd.ResultCache;
+import io.wispforest.lavendermd.feature.LinkFeature;
+import net.minecraft.text.Text;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Check the guarantees {@link MarkdownProcessor} documents about sharing processors between threads.
+ * The inputs of every corpus are first processed on a single thread, then many threads process them
+ * again at once - through {@code process}, {@code processAll}, and by parsing documents on one thread
+ * and compiling them on others - using the same processors, with and without a cache and a listener.
+ * Every result must equal the one processed on its own. Afterwards, copies are made of a processor
+ * to check that {@code copyWith} leaves the original as it was, and that frozen lexers reject new
+ * registrations. If any of it fails, the process exits with status 1
+ * <p>
+ * Texts are compared through their string form, which includes their style and siblings
+ */
+public final class ThreadSafetyCheck {
+
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 10;
+
+    private static final int MAX_FAILURES = 10;
+
+    public static void main(String[] args) throws Exception {
+        var failures = new ConcurrentLinkedQueue<String>();
+
+        var inputs = new ArrayList<String>();
+        for (var corpus : Corpus.values()) Collections.addAll(inputs, corpus.inputs());
+
+        var reports = new AtomicInteger();
+        var processors = List.of(
+                MarkdownProcessor.richText(40),
+                MarkdownProcessor.richText(40).copyWith(new ResultCache.Settings(256, 1 << 20)),
+                MarkdownProcessor.richText(40).copyWith((ProcessingListener) report -> reports.incrementAndGet())
+        );
+
+        var expected = new ArrayList<String>(inputs.size());
+        for (var input : inputs) expected.add(MarkdownProcessor.richText(40).process(input).toString());
+
+        var executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (var processor : processors) {
+                checkConcurrentProcessing(processor, inputs, expected, executor, failures);
+                checkProcessAll(processor, inputs, expected, failures);
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // only process reports to the listener, which every thread uses every other round, and processAll once
+        int expectedReports = (ROUNDS + 1) / 2 * THREADS * inputs.size() + inputs.size();
+        if (reports.get() != expectedReports) {
+            failures.add("The listener received " + reports.get() + " reports, expected " + expectedReports);
+        }
+
+        checkCopies(inputs, failures);
+        checkFrozenLexer(failures);
+
+        System.out.printf("Processed %d inputs %d times each on %d threads, with %d processors%n", inputs.size(), ROUNDS, THREADS, processors.size());
+        if (failures.isEmpty()) return;
+
+        failures.stream().limit(MAX_FAILURES).forEach(System.out::println);
+        System.exit(1);
+    }
+
+    private static void checkConcurrentProcessing(MarkdownProcessor<Text> processor, List<String> inputs, List<String> expected, ExecutorService executor, ConcurrentLinkedQueue<String> failures) throws Exception {
+        // start all threads at once, so that they actually overlap
+        var start = new CyclicBarrier(THREADS);
+        var tasks = new ArrayList<Future<?>>();
+
+        for (int thread = 0; thread < THREADS; thread++) {
+            var random = new Random(thread);
+
+            tasks.add(executor.submit(() -> {
+                start.await();
+
+                var order = new ArrayList<Integer>();
+                for (int i = 0; i < inputs.size(); i++) order.add(i);
+
+                for (int round = 0; round < ROUNDS; round++) {
+                    Collections.shuffle(order, random);
+
+                    for (int i : order) {
+                        // every other round, parse and compile separately to share
+                        // documents between threads through the processor's cache
+                        var result = round % 2 == 0
+                                ? processor.process(inputs.get(i))
+                                : processor.compile(processor.parse(inputs.get(i)));
+
+                        if (!result.toString().equals(expected.get(i))) {
+                            failures.add("Processing input " + i + " concurrently produced a different result: " + abbreviate(result.toString()));
+                        }
+                    }
+                }
+
+                return null;
+            }));
+        }
+
+        for (var task : tasks) task.get();
+    }
+
+    private static void checkProcessAll(MarkdownProcessor<Text> processor, List<String> inputs, List<String> expected, ConcurrentLinkedQueue<String> failures) {
+        var results = processor.processAll(inputs, ForkJoinPool.commonPool());
+        if (results.size() != inputs.size()) {
+            failures.add("processAll returned " + results.size() + " results for " + inputs.size() + " inputs");
+            return;
+        }
+
+        for (int i = 0; i < inputs.size(); i++) {
+            if (results.get(i).toString().equals(expected.get(i))) continue;
+            failures.add("processAll returned a different result for input " + i + ": " + abbreviate(results.get(i).toString()));
+        }
+    }
+
+    private static void checkCopies(List<String> inputs, ConcurrentLinkedQueue<String> failures) {
+        var original = MarkdownProcessor.text();
+
+        var features = List.copyOf(original.installedFeatures());
+        var limits = original.limits();
+        var passes = original.passes();
+        var listener = original.listener();
+
+        var before = new ArrayList<String>();
+        for (var input : inputs) before.add(original.process(input).toString());
+
+        var copies = List.of(
+                original.copyWith(new LinkFeature()),
+                original.copyWith(ProcessingLimits.UNTRUSTED),
+                original.copyWith(PassPipeline.NONE),
+                original.copyWith(new ResultCache.Settings(16, 1 << 16)),
+                original.copyWith((ProcessingListener) report -> {})
+        );
+
+        for (var copy : copies) {
+            if (copy == original) failures.add("copyWith returned the processor it was invoked on");
+        }
+
+        if (!features.equals(List.copyOf(original.installedFeatures()))) failures.add("copyWith changed the features of the original processor");
+        if (!limits.equals(original.limits())) failures.add("copyWith changed the limits of the original processor");
+        if (passes != original.passes()) failures.add("copyWith changed the passes of the original processor");
+        if (listener != original.listener()) failures.add("copyWith changed the listener of the original processor");
+        if (original.cache() != null) failures.add("copyWith gave the original processor a cache");
+
+        if (!copies.get(0).hasFeature(LinkFeature.class) || original.hasFeature(LinkFeature.class)) {
+            failures.add("Only the copy made with an additional feature may have it");
+        }
+
+        if (MarkdownProcessor.text() != original) failures.add("MarkdownProcessor.text() no longer returns the shared processor");
+
+        for (int i = 0; i < inputs.size(); i++) {
+            if (original.process(inputs.get(i)).toString().equals(before.get(i))) continue;
+            failures.add("Copying the processor changed its result for input " + i);
+        }
+    }
+
+    private static void checkFrozenLexer(ConcurrentLinkedQueue<String> failures) {
+        var lexer = new Lexer().freeze();
+
+        try {
+            lexer.registerToken((nibbler, tokens) -> false, '!');
+            failures.add("A frozen lexer accepted a new token");
+        } catch (IllegalStateException e) {
+            // frozen lexers must reject registrations
+        }
+    }
+
+    private static String abbreviate(String result) {
+        return result.length() > 200 ? result.substring(0, 200) + "..." : result;
+    }
+}
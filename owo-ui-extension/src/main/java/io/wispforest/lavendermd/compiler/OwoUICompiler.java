@@ -26,6 +26,12 @@ import java.util.function.UnaryOperator;
  */
 public class OwoUICompiler implements MarkdownCompiler<ParentComponent> {
 
+    /**
+     * A factory of plain owo-ui compilers, which lets processors check their
+     * features against it without building a component tree to do so
+     */
+    public static final CompilerFactory<ParentComponent> FACTORY = CompilerFactory.of(OwoUICompiler.class, OwoUICompiler::new, true);
+
     protected final Deque<FlowLayout> components = new ArrayDeque<>();
     protected final TextBuilder textBuilder = new TextBuilder();
 
@@ -147,4 +153,9 @@ public class OwoUICompiler implements MarkdownCompiler<ParentComponent> {
     public String name() {
         return "lavender_builtin_owo_ui";
     }
+
+    @Override
+    public boolean requiresRenderThread() {
+        return true;
+    }
 }
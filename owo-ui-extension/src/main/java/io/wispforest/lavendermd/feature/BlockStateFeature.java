@@ -1,58 +1,92 @@
 package io.wispforest.lavendermd.feature;
 
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import io.wispforest.lavendermd.DocumentCodec;
 import io.wispforest.lavendermd.Lexer;
 import io.wispforest.lavendermd.MarkdownFeature;
 import io.wispforest.lavendermd.Parser;
 import io.wispforest.lavendermd.compiler.MarkdownCompiler;
 import io.wispforest.lavendermd.compiler.OwoUICompiler;
+import io.wispforest.lavendermd.util.ParseCache;
 import io.wispforest.owo.ui.component.Components;
 import io.wispforest.owo.ui.container.Containers;
 import io.wispforest.owo.ui.core.HorizontalAlignment;
 import io.wispforest.owo.ui.core.Sizing;
 import net.minecraft.command.argument.BlockArgumentParser;
+import net.minecraft.nbt.StringNbtReader;
 import net.minecraft.registry.Registries;
 
 public class BlockStateFeature implements MarkdownFeature {
 
+    private static final String TRIGGER = "<block;";
+
+    private static final ParseCache<BlockArgumentParser.BlockResult> STATE_CACHE = new ParseCache<>(256);
+
     @Override
     public String name() {
         return "block_states";
     }
 
     @Override
-    public boolean supportsCompiler(MarkdownCompiler<?> compiler) {
-        return compiler instanceof OwoUICompiler;
+    public boolean supportsCompiler(Class<?> compilerClass) {
+        return OwoUICompiler.class.isAssignableFrom(compilerClass);
+    }
+
+    @Override
+    public Object registrationKey() {
+        return this.getClass();
     }
 
     @Override
     public void registerTokens(TokenRegistrar registrar) {
         registrar.registerToken((nibbler, tokens) -> {
-            if (!nibbler.tryConsume("<block;")) return false;
+            nibbler.skip(TRIGGER.length());
 
             var blockStateString = nibbler.consumeUntil('>');
             if (blockStateString == null) return false;
 
-            try {
-                tokens.add(new BlockStateToken(
-                        blockStateString,
-                        BlockArgumentParser.block(Registries.BLOCK.getReadOnlyWrapper(), blockStateString, true)
-                ));
-                return true;
-            } catch (CommandSyntaxException e) {
-                return false;
-            }
-        }, '<');
+            var state = STATE_CACHE.get(blockStateString, input -> BlockArgumentParser.block(Registries.BLOCK.getReadOnlyWrapper(), input, true));
+            if (state == null) return false;
+
+            // block states are immutable, but the block entity nbt is not
+            tokens.add(new BlockStateToken(
+                    blockStateString,
+                    new BlockArgumentParser.BlockResult(state.blockState(), state.properties(), state.nbt() != null ? state.nbt().copy() : null)
+            ));
+            return true;
+        }, TRIGGER);
     }
 
     @Override
     public void registerNodes(NodeRegistrar registrar) {
         registrar.registerNode(
                 (parser, stateToken, tokens) -> new BlockStateNode(stateToken.state),
-                (token, tokens) -> token instanceof BlockStateToken blockState ? blockState : null
+                BlockStateToken.class
         );
     }
 
+    @Override
+    public void registerCodecs(CodecRegistrar registrar) {
+        registrar.registerCodec("block_state", BlockStateNode.class, DocumentCodec.NodeCodec.of(
+                (node, output) -> {
+                    output.writeString(BlockArgumentParser.stringifyBlockState(node.state.blockState()));
+
+                    output.writeBoolean(node.state.nbt() != null);
+                    if (node.state.nbt() != null) output.writeString(node.state.nbt().asString());
+                },
+                input -> {
+                    try {
+                        var state = BlockArgumentParser.block(Registries.BLOCK.getReadOnlyWrapper(), input.readString(), false);
+                        var nbt = input.readBoolean() ? StringNbtReader.parse(input.readString()) : null;
+
+                        return new BlockStateNode(new BlockArgumentParser.BlockResult(state.blockState(), state.properties(), nbt));
+                    } catch (CommandSyntaxException e) {
+                        throw new IllegalArgumentException("Invalid encoded block state", e);
+                    }
+                }
+        ));
+    }
+
     private static class BlockStateToken extends Lexer.Token {
 
         public final BlockArgumentParser.BlockResult state;
@@ -75,7 +109,7 @@ public class BlockStateFeature implements MarkdownFeature {
         protected void visitStart(MarkdownCompiler<?> compiler) {
             ((OwoUICompiler) compiler).visitComponent(
                     Containers.stack(Sizing.fill(100), Sizing.content())
-                            .child(Components.block(this.state.blockState(), this.state.nbt()).sizing(Sizing.fixed(48)))
+                            .child(Components.block(this.state.blockState(), this.state.nbt() != null ? this.state.nbt().copy() : null).sizing(Sizing.fixed(48)))
                             .horizontalAlignment(HorizontalAlignment.CENTER)
             );
         }
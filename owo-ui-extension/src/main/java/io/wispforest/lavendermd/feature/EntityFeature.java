@@ -2,67 +2,117 @@ package io.wispforest.lavendermd.feature;
 
 import com.mojang.brigadier.StringReader;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import com.mojang.brigadier.exceptions.SimpleCommandExceptionType;
+import io.wispforest.lavendermd.DocumentCodec;
 import io.wispforest.lavendermd.Lexer;
 import io.wispforest.lavendermd.MarkdownFeature;
 import io.wispforest.lavendermd.Parser;
 import io.wispforest.lavendermd.compiler.MarkdownCompiler;
 import io.wispforest.lavendermd.compiler.OwoUICompiler;
+import io.wispforest.lavendermd.util.ParseCache;
 import io.wispforest.owo.ui.component.Components;
 import io.wispforest.owo.ui.core.Sizing;
 import net.minecraft.entity.EntityType;
 import net.minecraft.nbt.NbtCompound;
 import net.minecraft.nbt.StringNbtReader;
 import net.minecraft.registry.Registries;
+import net.minecraft.text.Text;
 import net.minecraft.util.Identifier;
 import org.jetbrains.annotations.Nullable;
 
 public class EntityFeature implements MarkdownFeature {
 
+    private static final String TRIGGER = "<entity;";
+
+    private static final ParseCache<EntityResult> ENTITY_CACHE = new ParseCache<>(256);
+
+    // invalid and unknown entity ids are reported as syntax errors,
+    // so that the cache remembers them like malformed nbt
+    private static final SimpleCommandExceptionType UNKNOWN_ENTITY = new SimpleCommandExceptionType(Text.literal("Unknown entity type"));
+
     @Override
     public String name() {
         return "entities";
     }
 
     @Override
-    public boolean supportsCompiler(MarkdownCompiler<?> compiler) {
-        return compiler instanceof OwoUICompiler;
+    public boolean supportsCompiler(Class<?> compilerClass) {
+        return OwoUICompiler.class.isAssignableFrom(compilerClass);
+    }
+
+    @Override
+    public Object registrationKey() {
+        return this.getClass();
     }
 
     @Override
     public void registerTokens(TokenRegistrar registrar) {
         registrar.registerToken((nibbler, tokens) -> {
-            if (!nibbler.tryConsume("<entity;")) return false;
+            nibbler.skip(TRIGGER.length());
 
             var entityString = nibbler.consumeUntil('>');
             if (entityString == null) return false;
 
-            try {
-                NbtCompound nbt = null;
+            var entity = ENTITY_CACHE.get(entityString, EntityFeature::parseEntity);
+            if (entity == null) return false;
+
+            // the cached nbt is shared, so every token gets its own copy
+            tokens.add(new EntityToken(entity.typeString, entity.type, entity.nbt != null ? entity.nbt.copy() : null));
+            return true;
+        }, TRIGGER);
+    }
 
-                int nbtIndex = entityString.indexOf('{');
-                if (nbtIndex != -1) {
+    private static EntityResult parseEntity(String entityString) throws CommandSyntaxException {
+        NbtCompound nbt = null;
 
-                    nbt = new StringNbtReader(new StringReader(entityString.substring(nbtIndex))).parseCompound();
-                    entityString = entityString.substring(0, nbtIndex);
-                }
+        int nbtIndex = entityString.indexOf('{');
+        if (nbtIndex != -1) {
 
-                var entityType = Registries.ENTITY_TYPE.getOrEmpty(new Identifier(entityString)).orElseThrow();
-                tokens.add(new EntityToken(entityString, entityType, nbt));
-                return true;
-            } catch (CommandSyntaxException e) {
-                return false;
-            }
-        }, '<');
+            nbt = new StringNbtReader(new StringReader(entityString.substring(nbtIndex))).parseCompound();
+            entityString = entityString.substring(0, nbtIndex);
+        }
+
+        var entityId = Identifier.tryParse(entityString);
+        if (entityId == null) throw UNKNOWN_ENTITY.create();
+
+        var entityType = Registries.ENTITY_TYPE.getOrEmpty(entityId).orElseThrow(UNKNOWN_ENTITY::create);
+        return new EntityResult(entityString, entityType, nbt);
     }
 
     @Override
     public void registerNodes(NodeRegistrar registrar) {
         registrar.registerNode(
                 (parser, entityToken, tokens) -> new EntityNode(entityToken.type, entityToken.nbt),
-                (token, tokens) -> token instanceof EntityToken entity ? entity : null
+                EntityToken.class
         );
     }
 
+    @Override
+    public void registerCodecs(CodecRegistrar registrar) {
+        registrar.registerCodec("entity", EntityNode.class, DocumentCodec.NodeCodec.of(
+                (node, output) -> {
+                    output.writeString(Registries.ENTITY_TYPE.getId(node.type).toString());
+
+                    output.writeBoolean(node.nbt != null);
+                    if (node.nbt != null) output.writeString(node.nbt.asString());
+                },
+                input -> {
+                    var typeId = Identifier.tryParse(input.readString());
+
+                    var type = typeId != null ? Registries.ENTITY_TYPE.getOrEmpty(typeId).orElse(null) : null;
+                    if (type == null) throw new IllegalArgumentException("Encoded entity refers to an unknown entity type");
+
+                    try {
+                        return new EntityNode(type, input.readBoolean() ? StringNbtReader.parse(input.readString()) : null);
+                    } catch (CommandSyntaxException e) {
+                        throw new IllegalArgumentException("Invalid encoded entity nbt", e);
+                    }
+                }
+        ));
+    }
+
+    private record EntityResult(String typeString, EntityType<?> type, @Nullable NbtCompound nbt) {}
+
     private static class EntityToken extends Lexer.Token {
 
         public final EntityType<?> type;
@@ -87,7 +137,7 @@ public class EntityFeature implements MarkdownFeature {
 
         @Override
         protected void visitStart(MarkdownCompiler<?> compiler) {
-            ((OwoUICompiler) compiler).visitComponent(Components.entity(Sizing.fixed(32), this.type, this.nbt).scaleToFit(true));
+            ((OwoUICompiler) compiler).visitComponent(Components.entity(Sizing.fixed(32), this.type, this.nbt != null ? this.nbt.copy() : null).scaleToFit(true));
         }
 
         @Override
@@ -2,58 +2,92 @@ package io.wispforest.lavendermd.feature;
 
 import com.mojang.brigadier.StringReader;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import io.wispforest.lavendermd.DocumentCodec;
 import io.wispforest.lavendermd.Lexer;
 import io.wispforest.lavendermd.MarkdownFeature;
 import io.wispforest.lavendermd.Parser;
 import io.wispforest.lavendermd.compiler.MarkdownCompiler;
 import io.wispforest.lavendermd.compiler.OwoUICompiler;
+import io.wispforest.lavendermd.util.ParseCache;
 import io.wispforest.owo.ui.component.Components;
 import net.minecraft.command.argument.ItemStringReader;
 import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.StringNbtReader;
 import net.minecraft.registry.Registries;
 
 public class ItemStackFeature implements MarkdownFeature {
 
+    private static final String TRIGGER = "<item;";
+
+    private static final ParseCache<ItemStack> STACK_CACHE = new ParseCache<>(256);
+
     @Override
     public String name() {
         return "item_stacks";
     }
 
     @Override
-    public boolean supportsCompiler(MarkdownCompiler<?> compiler) {
-        return compiler instanceof OwoUICompiler;
+    public boolean supportsCompiler(Class<?> compilerClass) {
+        return OwoUICompiler.class.isAssignableFrom(compilerClass);
+    }
+
+    @Override
+    public Object registrationKey() {
+        return this.getClass();
     }
 
     @Override
     public void registerTokens(TokenRegistrar registrar) {
         registrar.registerToken((nibbler, tokens) -> {
-            if (!nibbler.tryConsume("<item;")) return false;
+            nibbler.skip(TRIGGER.length());
 
             var itemStackString = nibbler.consumeUntil('>');
             if (itemStackString == null) return false;
 
-            try {
-                var result = ItemStringReader.item(Registries.ITEM.getReadOnlyWrapper(), new StringReader(itemStackString));
+            var stack = STACK_CACHE.get(itemStackString, ItemStackFeature::parseStack);
+            if (stack == null) return false;
 
-                var stack = result.item().value().getDefaultStack();
-                stack.setNbt(result.nbt());
+            // the cached stack is shared, so every token gets its own copy
+            tokens.add(new ItemStackToken(itemStackString, stack.copy()));
+            return true;
+        }, TRIGGER);
+    }
 
-                tokens.add(new ItemStackToken(itemStackString, stack));
-                return true;
-            } catch (CommandSyntaxException e) {
-                return false;
-            }
-        }, '<');
+    private static ItemStack parseStack(String itemStackString) throws CommandSyntaxException {
+        var result = ItemStringReader.item(Registries.ITEM.getReadOnlyWrapper(), new StringReader(itemStackString));
+
+        var stack = result.item().value().getDefaultStack();
+        stack.setNbt(result.nbt());
+
+        return stack;
     }
 
     @Override
     public void registerNodes(NodeRegistrar registrar) {
         registrar.registerNode(
                 (parser, stackToken, tokens) -> new ItemStackNode(stackToken.stack),
-                (token, tokens) -> token instanceof ItemStackToken itemStack ? itemStack : null
+                ItemStackToken.class
         );
     }
 
+    @Override
+    public void registerCodecs(CodecRegistrar registrar) {
+        registrar.registerCodec("item_stack", ItemStackNode.class, DocumentCodec.NodeCodec.of(
+                (node, output) -> output.writeString(node.stack.writeNbt(new NbtCompound()).asString()),
+                input -> {
+                    try {
+                        var stack = ItemStack.fromNbt(StringNbtReader.parse(input.readString()));
+                        if (stack.isEmpty()) throw new IllegalArgumentException("Encoded item stack refers to an unknown item");
+
+                        return new ItemStackNode(stack);
+                    } catch (CommandSyntaxException e) {
+                        throw new IllegalArgumentException("Invalid encoded item stack", e);
+                    }
+                }
+        ));
+    }
+
     private static class ItemStackToken extends Lexer.Token {
 
         public final ItemStack stack;
@@ -74,7 +108,8 @@ public class ItemStackFeature implements MarkdownFeature {
 
         @Override
         protected void visitStart(MarkdownCompiler<?> compiler) {
-            ((OwoUICompiler) compiler).visitComponent(Components.item(this.stack).setTooltipFromStack(true));
+            // the node may be compiled more than once, so it must not hand out its own stack
+            ((OwoUICompiler) compiler).visitComponent(Components.item(this.stack.copy()).setTooltipFromStack(true));
         }
 
         @Override
@@ -1,6 +1,7 @@
 package io.wispforest.lavendermd.feature;
 
 import com.mojang.logging.LogUtils;
+import io.wispforest.lavendermd.DocumentCodec;
 import io.wispforest.lavendermd.Lexer;
 import io.wispforest.lavendermd.MarkdownFeature;
 import io.wispforest.lavendermd.Parser;
@@ -27,6 +28,19 @@ public class OwoUITemplateFeature implements MarkdownFeature {
 
     private static final Logger LOGGER = LogUtils.getLogger();
 
+    // shared by all default instances, which makes them equivalent registration-wise
+    private static final TemplateProvider LOADED_MODELS = new TemplateProvider() {
+        @Override
+        public <C extends Component> C template(Identifier model, Class<C> expectedClass, String templateName, Map<String, String> templateParams) {
+            var uiModel = UIModelLoader.get(model);
+            if (uiModel == null) {
+                throw new UIModelParsingException("No UI model with id '" + model + " is currently loaded");
+            }
+
+            return uiModel.expandTemplate(expectedClass, templateName, templateParams);
+        }
+    };
+
     private final TemplateProvider templateSource;
 
     public OwoUITemplateFeature(TemplateProvider templateProvider) {
@@ -34,17 +48,7 @@ public class OwoUITemplateFeature implements MarkdownFeature {
     }
 
     public OwoUITemplateFeature() {
-        this(new TemplateProvider() {
-            @Override
-            public <C extends Component> C template(Identifier model, Class<C> expectedClass, String templateName, Map<String, String> templateParams) {
-                var uiModel = UIModelLoader.get(model);
-                if (uiModel == null) {
-                    throw new UIModelParsingException("No UI model with id '" + model + " is currently loaded");
-                }
-
-                return uiModel.expandTemplate(expectedClass, templateName, templateParams);
-            }
-        });
+        this(LOADED_MODELS);
     }
 
     @Override
@@ -53,15 +57,21 @@ public class OwoUITemplateFeature implements MarkdownFeature {
     }
 
     @Override
-    public boolean supportsCompiler(MarkdownCompiler<?> compiler) {
-        return compiler instanceof OwoUICompiler;
+    public boolean supportsCompiler(Class<?> compilerClass) {
+        return OwoUICompiler.class.isAssignableFrom(compilerClass);
+    }
+
+    @Override
+    public Object registrationKey() {
+        return this.templateSource;
     }
 
     @Override
     public void registerTokens(TokenRegistrar registrar) {
         registrar.registerToken((nibbler, tokens) -> {
-            nibbler.skip();
-            if (!nibbler.tryConsume('|')) return false;
+            int start = nibbler.cursor();
+
+            nibbler.skip(2);
 
             var templateLocation = nibbler.consumeUntil('|');
             if (templateLocation == null) return false;
@@ -80,27 +90,44 @@ public class OwoUITemplateFeature implements MarkdownFeature {
                 nibbler.skip();
             }
 
-            tokens.add(new TemplateToken(modelId, splitLocation[0], templateParams));
+            tokens.add(new TemplateToken(nibbler.consumedSince(start), modelId, splitLocation[0], templateParams));
             return true;
-        }, '<');
+        }, "<|");
     }
 
     @Override
     public void registerNodes(NodeRegistrar registrar) {
         registrar.registerNode(
                 (parser, templateToken, tokens) -> new TemplateNode(templateToken.modelId, templateToken.templateName, templateToken.params),
-                (token, tokens) -> token instanceof TemplateToken template ? template : null
+                TemplateToken.class
         );
     }
 
+    @Override
+    public void registerCodecs(CodecRegistrar registrar) {
+        registrar.registerCodec("owo_ui_template", TemplateNode.class, DocumentCodec.NodeCodec.of(
+                (node, output) -> {
+                    output.writeString(node.modelId.toString());
+                    output.writeString(node.templateName);
+                    output.writeString(node.params);
+                },
+                input -> {
+                    var modelId = Identifier.tryParse(input.readString());
+                    if (modelId == null) throw new IllegalArgumentException("Invalid encoded template model id");
+
+                    return new TemplateNode(modelId, input.readString(), input.readString());
+                }
+        ));
+    }
+
     private static class TemplateToken extends Lexer.Token {
 
         public final Identifier modelId;
         public final String templateName;
         public final String params;
 
-        public TemplateToken(Identifier modelId, String templateName, String params) {
-            super("<|" + modelId + "|" + params + "|>");
+        public TemplateToken(CharSequence content, Identifier modelId, String templateName, String params) {
+            super(content);
             this.modelId = modelId;
             this.templateName = templateName;
             this.params = params;
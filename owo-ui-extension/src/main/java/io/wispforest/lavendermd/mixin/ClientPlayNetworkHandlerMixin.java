@@ -0,0 +1,21 @@
+package io.wispforest.lavendermd.mixin;
+
+import io.wispforest.lavendermd.util.ParseCache;
+import net.minecraft.client.network.ClientPlayNetworkHandler;
+import net.minecraft.network.packet.s2c.play.SynchronizeTagsS2CPacket;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+@Mixin(ClientPlayNetworkHandler.class)
+public class ClientPlayNetworkHandlerMixin {
+
+    // tags are synced after joining a world (once registries have been synced)
+    // and on every data reload, which makes this the point at which cached parse results go stale
+    @Inject(method = "onSynchronizeTags", at = @At("TAIL"))
+    private void clearParseCaches(SynchronizeTagsS2CPacket packet, CallbackInfo ci) {
+        ParseCache._clearAll();
+    }
+
+}
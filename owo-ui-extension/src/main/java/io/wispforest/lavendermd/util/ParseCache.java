@@ -0,0 +1,85 @@
+package io.wispforest.lavendermd.util;
+
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A bounded, thread-safe LRU cache of parse results keyed by the raw string
+ * they were parsed from. Failed parses are cached as well, so that invalid
+ * input is not re-parsed every time it is encountered
+ * <p>
+ * Cached values are shared between all users of a cache - if they are mutable,
+ * callers must copy them before handing them out. All caches are cleared
+ * whenever the client receives new data from the server
+ */
+public final class ParseCache<V> {
+
+    private static final List<ParseCache<?>> CACHES = new CopyOnWriteArrayList<>();
+
+    private final Map<String, Optional<V>> entries;
+
+    public ParseCache(int capacity) {
+        this.entries = new LinkedHashMap<>(16, .75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Optional<V>> eldest) {
+                return this.size() > capacity;
+            }
+        };
+
+        CACHES.add(this);
+    }
+
+    /**
+     * Look up the result of parsing {@code input}, invoking {@code parser}
+     * if it is not cached yet
+     *
+     * @return The parsed value, or {@code null} if {@code parser}
+     * rejected {@code input}, now or when it was cached
+     */
+    public @Nullable V get(String input, Parser<V> parser) {
+        Optional<V> cached;
+        synchronized (this.entries) {
+            cached = this.entries.get(input);
+        }
+
+        if (cached != null) return cached.orElse(null);
+
+        // parse outside the lock - in the worst case,
+        // two threads do the same work and one result wins
+        Optional<V> result;
+        try {
+            result = Optional.of(parser.parse(input));
+        } catch (CommandSyntaxException e) {
+            result = Optional.empty();
+        }
+
+        synchronized (this.entries) {
+            this.entries.put(input, result);
+        }
+
+        return result.orElse(null);
+    }
+
+    public void clear() {
+        synchronized (this.entries) {
+            this.entries.clear();
+        }
+    }
+
+    @ApiStatus.Internal
+    public static void _clearAll() {
+        CACHES.forEach(ParseCache::clear);
+    }
+
+    @FunctionalInterface
+    public interface Parser<V> {
+        V parse(String input) throws CommandSyntaxException;
+    }
+}
@@ -28,17 +28,21 @@ public class EditMdScreen extends BaseUIModelScreen<FlowLayout> implements Comma
     protected void build(FlowLayout rootComponent) {
         var output = rootComponent.childById(LabelComponent.class, "output");
 
+        var componentSession = MarkdownProcessor.richText(0)
+                .copyWith(OwoUICompiler.FACTORY)
+                .copyWith(new ImageFeature(), new BlockStateFeature(), new ItemStackFeature(), new EntityFeature(), new OwoUITemplateFeature())
+                .openSession("");
+        var textSession = MarkdownProcessor.richText(40).openSession("");
+
         var anchor = rootComponent.childById(FlowLayout.class, "output-anchor");
         rootComponent.childById(TextAreaComponent.class, "input").onChanged().subscribe(value -> {
             try {
                 anchor.<FlowLayout>configure(layout -> {
-                    var processor = MarkdownProcessor.richText(0).copyWith(OwoUICompiler::new).copyWith(new ImageFeature(), new BlockStateFeature(), new ItemStackFeature(), new EntityFeature(), new OwoUITemplateFeature());
-
                     layout.clearChildren();
-                    layout.child(processor.process(value));
+                    layout.child(componentSession.update(value).compile());
                 });
 
-                output.text(MarkdownProcessor.richText(40).process(value));
+                output.text(textSession.update(value).compile());
             } catch (Exception e) {
                 var trace = new StringWriter();
                 var traceWriter = new PrintWriter(trace);
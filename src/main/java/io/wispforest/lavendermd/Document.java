@@ -0,0 +1,38 @@
+package io.wispforest.lavendermd;
+
+import java.util.List;
+
+/**
+ * A parsed Markdown document, obtained through {@link MarkdownProcessor#parse(String)}.
+ * Documents are immutable - they can be compiled any number of times through
+ * {@link MarkdownProcessor#compile(Document, java.util.function.Supplier)},
+ * into different compilers and from multiple threads at once, without lexing
+ * and parsing their source again. To skip lexing and parsing entirely the next time
+ * the same source is needed, documents can be {@linkplain MarkdownProcessor#encode(Document) encoded}
+ * into a binary form which {@link MarkdownProcessor#decode(java.nio.ByteBuffer)} loads again
+ */
+public final class Document {
+
+    private final FlatTree tree;
+    private final List<MarkdownFeature> features;
+
+    Document(FlatTree tree, List<MarkdownFeature> features) {
+        this.tree = tree;
+        this.features = features;
+    }
+
+    /**
+     * @return The AST of this document
+     */
+    public FlatTree tree() {
+        return this.tree;
+    }
+
+    /**
+     * @return The features installed into the processor which parsed
+     * this document - any compiler used for it must be supported by all of them
+     */
+    public List<MarkdownFeature> features() {
+        return this.features;
+    }
+}
@@ -0,0 +1,478 @@
+package io.wispforest.lavendermd;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * The binary encoding of {@link Document}s, through which a {@link MarkdownProcessor} can
+ * store documents it parsed and load them again without lexing and parsing their source.
+ * The payload of every node which is neither text nor a plain container is encoded by
+ * a {@link NodeCodec} registered by the feature which created it
+ * <p>
+ * An encoded document consists of a header with the format version and a fingerprint of
+ * the feature-set which encoded it, a table of the strings used by node payloads, the text
+ * of all text nodes, and finally the nodes themselves in preorder. Every node is stored as its
+ * kind and the distance to its parent, followed by the length of its text or its payload.
+ * All integers are variable-length, and all strings store each char in one to three bytes
+ * like modified UTF-8 - unlike proper UTF-8, this also preserves unpaired surrogates
+ */
+public final class DocumentCodec implements MarkdownFeature.CodecRegistrar {
+
+    /**
+     * The version of the encoding, which is part of the fingerprint of
+     * every codec - changing it invalidates all previously encoded documents
+     */
+    public static final int FORMAT_VERSION = 1;
+
+    private static final byte[] MAGIC = {'L', 'V', 'M', 'D'};
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L, FNV_PRIME = 0x100000001b3L;
+
+    // node kinds past those of the flat tree identify the codec of their payload
+    private static final int FIRST_CODEC_KIND = FlatTree.KIND_NODE;
+
+    private final List<RegisteredCodec<?>> codecs = new ArrayList<>();
+    private final Map<Class<?>, Integer> codecKinds = new HashMap<>();
+    private final Set<String> codecIds = new HashSet<>();
+
+    private final long fingerprint;
+
+    DocumentCodec(List<MarkdownFeature> features) {
+        this.registerCodec("fused_formatting", Parser.FusedFormattingNode.class, NodeCodec.of(this::encodeFusedFormatting, this::decodeFusedFormatting));
+
+        for (var feature : features) {
+            feature.registerCodecs(this);
+        }
+
+        this.fingerprint = fingerprint(features, this.codecs);
+    }
+
+    @Override
+    public <N extends Parser.Node> void registerCodec(String id, Class<N> nodeClass, NodeCodec<N> codec) {
+        if (this.codecIds.contains(id)) throw new IllegalArgumentException("Duplicate node codec id '" + id + "'");
+        if (this.codecKinds.containsKey(nodeClass)) throw new IllegalArgumentException("Duplicate node codec for " + nodeClass.getName());
+
+        this.codecKinds.put(nodeClass, FIRST_CODEC_KIND + this.codecs.size());
+        this.codecIds.add(id);
+        this.codecs.add(new RegisteredCodec<>(id, nodeClass, codec));
+    }
+
+    /**
+     * A fingerprint of {@code features} and the codecs they register, which documents
+     * carry in their header. It changes whenever a feature is added, removed or replaced,
+     * the features are reordered, or the id of one of their codecs changes
+     */
+    private static long fingerprint(List<MarkdownFeature> features, List<RegisteredCodec<?>> codecs) {
+        long hash = mix(FNV_OFFSET_BASIS, String.valueOf(FORMAT_VERSION));
+        for (var feature : features) {
+            hash = mix(hash, feature.getClass().getName());
+            hash = mix(hash, feature.name());
+        }
+
+        for (var codec : codecs) {
+            hash = mix(hash, codec.id);
+        }
+
+        return hash;
+    }
+
+    // 64-bit FNV-1a, with each string terminated by a char which cannot occur in it
+    private static long mix(long hash, String string) {
+        for (int i = 0; i < string.length(); i++) {
+            hash = (hash ^ string.charAt(i)) * FNV_PRIME;
+        }
+
+        return (hash ^ 0xFFFF) * FNV_PRIME;
+    }
+
+    // --- encoding ---
+
+    /**
+     * Encode {@code tree} into a new buffer, ready to be read
+     *
+     * @throws IllegalArgumentException If {@code tree} contains a node for which no codec
+     *                                  is registered, or one which overrides {@link Parser.Node#visit(io.wispforest.lavendermd.compiler.MarkdownCompiler)}
+     */
+    ByteBuffer encode(FlatTree tree) {
+        var strings = new Output(null);
+        var nodes = new Output(strings);
+        var text = new StringBuilder();
+
+        nodes.writeVarInt(tree.size());
+        for (int node = 0; node < tree.size(); node++) {
+            int kind = tree.kind(node);
+
+            if (kind == FlatTree.KIND_SUBTREE) {
+                throw new IllegalArgumentException("Nodes of type " + tree.node(node).getClass().getName() + " visit their subtree themselves and cannot be encoded");
+            }
+
+            if (kind == FlatTree.KIND_NODE) kind = this.codecKind(tree.node(node));
+
+            nodes.writeVarInt(kind);
+            if (node != 0) nodes.writeVarInt(node - tree.parent(node));
+
+            if (kind == FlatTree.KIND_TEXT) {
+                var content = tree.text(node);
+
+                text.append(content);
+                nodes.writeVarInt(content.length());
+            } else if (kind >= FIRST_CODEC_KIND) {
+                this.encodePayload(this.codecs.get(kind - FIRST_CODEC_KIND), tree.node(node), nodes);
+            }
+        }
+
+        var header = new Output(null);
+        header.writeBytes(MAGIC, MAGIC.length);
+        header.writeVarInt(FORMAT_VERSION);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            header.writeByte((int) (this.fingerprint >>> shift));
+        }
+
+        header.writeVarInt(strings.stringCount);
+        header.writeBytes(strings.bytes, strings.size);
+        header.writeRawString(text);
+        header.writeBytes(nodes.bytes, nodes.size);
+
+        return ByteBuffer.wrap(header.bytes, 0, header.size).slice();
+    }
+
+    private int codecKind(Parser.Node node) {
+        var kind = this.codecKinds.get(node.getClass());
+        if (kind == null) throw new IllegalArgumentException("No codec is registered for nodes of type " + node.getClass().getName());
+
+        return kind;
+    }
+
+    private <N extends Parser.Node> void encodePayload(RegisteredCodec<N> codec, Parser.Node node, Output output) {
+        codec.codec.write(codec.nodeClass.cast(node), output);
+    }
+
+    private void encodeFusedFormatting(Parser.FusedFormattingNode node, Output output) {
+        output.writeVarInt(node.parts.length);
+        for (var part : node.parts) {
+            int kind = this.codecKind(part);
+
+            output.writeVarInt(kind);
+            this.encodePayload(this.codecs.get(kind - FIRST_CODEC_KIND), part, output);
+        }
+    }
+
+    private Parser.FusedFormattingNode decodeFusedFormatting(Input input) {
+        var parts = new Parser.FormattingNode[input.readLength()];
+        for (int i = 0; i < parts.length; i++) {
+            int kind = input.readVarInt();
+
+            // parts are never fused nodes themselves, which also keeps
+            // malformed documents from nesting them arbitrarily deep
+            if (kind <= FIRST_CODEC_KIND || kind - FIRST_CODEC_KIND >= this.codecs.size()
+                    || !(this.codecs.get(kind - FIRST_CODEC_KIND).codec.read(input) instanceof Parser.FormattingNode part)) {
+                throw new IllegalArgumentException("Fused formatting node contains a node of invalid kind " + kind);
+            }
+
+            parts[i] = part;
+        }
+
+        return new Parser.FusedFormattingNode(parts);
+    }
+
+    // --- decoding ---
+
+    /**
+     * Decode a tree encoded by a codec with the same fingerprint, starting
+     * at the position of {@code buffer} and advancing it past the tree
+     *
+     * @throws IllegalArgumentException If {@code buffer} does not contain a document
+     *                                  encoded by a codec with the same fingerprint,
+     *                                  or the document is malformed
+     */
+    FlatTree decode(ByteBuffer buffer) {
+        try {
+            var input = new Input(buffer);
+
+            for (byte magic : MAGIC) {
+                if (buffer.get() != magic) throw new IllegalArgumentException("Buffer does not contain an encoded Markdown document");
+            }
+
+            int version = input.readVarInt();
+            if (version != FORMAT_VERSION) {
+                throw new IllegalArgumentException("Document was encoded in format version " + version + ", expected " + FORMAT_VERSION);
+            }
+
+            long fingerprint = 0;
+            for (int i = 0; i < 8; i++) {
+                fingerprint = (fingerprint << 8) | (buffer.get() & 0xFF);
+            }
+
+            if (fingerprint != this.fingerprint) {
+                throw new IllegalArgumentException("Document was encoded with a different feature-set, it must be encoded again");
+            }
+
+            int stringCount = input.readLength();
+            input.strings = new String[stringCount];
+            for (int i = 0; i < stringCount; i++) {
+                input.strings[i] = input.readRawString();
+            }
+
+            var text = input.readRawString();
+            return this.decodeNodes(input, text);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Encoded document is truncated", e);
+        }
+    }
+
+    private FlatTree decodeNodes(Input input, String text) {
+        int size = input.readLength();
+        if (size == 0) throw new IllegalArgumentException("Encoded document has no root node");
+
+        var kinds = new byte[size];
+        var parents = new int[size];
+        var nextSiblings = new int[size];
+        var payloads = new int[size];
+
+        var textOffsets = new int[16];
+        int textCount = 0;
+
+        var nodes = new ArrayList<Parser.Node>();
+
+        // the path from the root to the previous node, on which the parent
+        // of each node must lie for the nodes to actually be in preorder
+        var path = new int[16];
+        int depth = 0;
+
+        var lastChildren = new int[size];
+        Arrays.fill(lastChildren, -1);
+
+        for (int node = 0; node < size; node++) {
+            int kind = input.readVarInt();
+
+            int parent = -1;
+            if (node != 0) {
+                parent = node - input.readVarInt();
+                while (depth > 0 && path[depth - 1] != parent) depth--;
+
+                if (depth == 0) throw new IllegalArgumentException("Encoded document is not a tree in preorder");
+            }
+
+            if (depth == path.length) path = Arrays.copyOf(path, depth * 2);
+            path[depth++] = node;
+
+            parents[node] = parent;
+            nextSiblings[node] = -1;
+            if (parent != -1) {
+                if (lastChildren[parent] != -1) nextSiblings[lastChildren[parent]] = node;
+                lastChildren[parent] = node;
+            }
+
+            if (kind == FlatTree.KIND_CONTAINER) {
+                kinds[node] = FlatTree.KIND_CONTAINER;
+            } else if (kind == FlatTree.KIND_TEXT) {
+                if (textCount + 1 >= textOffsets.length) textOffsets = Arrays.copyOf(textOffsets, textOffsets.length * 2);
+
+                int end = textOffsets[textCount] + input.readVarInt();
+                if (end < textOffsets[textCount] || end > text.length()) throw new IllegalArgumentException("Text node exceeds the encoded text");
+
+                kinds[node] = FlatTree.KIND_TEXT;
+                payloads[node] = textCount;
+                textOffsets[++textCount] = end;
+            } else if (kind >= FIRST_CODEC_KIND && kind - FIRST_CODEC_KIND < this.codecs.size()) {
+                kinds[node] = FlatTree.KIND_NODE;
+                payloads[node] = nodes.size();
+                nodes.add(this.codecs.get(kind - FIRST_CODEC_KIND).codec.read(input));
+            } else {
+                throw new IllegalArgumentException("Unknown node kind " + kind);
+            }
+        }
+
+        return new FlatTree(kinds, parents, nextSiblings, payloads, text, Arrays.copyOf(textOffsets, textCount + 1), nodes.toArray(Parser.Node[]::new));
+    }
+
+    // --- payloads ---
+
+    /**
+     * Encodes and decodes the payload of one type of node, which is everything
+     * needed to visit the node apart from its children
+     */
+    public interface NodeCodec<N extends Parser.Node> {
+
+        void write(N node, Output output);
+
+        /**
+         * @throws IllegalArgumentException If the payload cannot be decoded,
+         *                                  for instance because something it refers
+         *                                  to no longer exists
+         */
+        N read(Input input);
+
+        static <N extends Parser.Node> NodeCodec<N> of(BiConsumer<N, Output> writer, Function<Input, N> reader) {
+            return new NodeCodec<>() {
+                @Override
+                public void write(N node, Output output) {
+                    writer.accept(node, output);
+                }
+
+                @Override
+                public N read(Input input) {
+                    return reader.apply(input);
+                }
+            };
+        }
+
+        /**
+         * @return A codec for nodes without a payload, which
+         * are recreated by invoking {@code factory}
+         */
+        static <N extends Parser.Node> NodeCodec<N> unit(Supplier<N> factory) {
+            return of((node, output) -> {}, input -> factory.get());
+        }
+    }
+
+    public static final class Output {
+
+        private byte[] bytes = new byte[256];
+        private int size = 0;
+
+        private final @Nullable Output strings;
+        private final Map<String, Integer> stringIndices = new HashMap<>();
+        private int stringCount = 0;
+
+        private Output(@Nullable Output strings) {
+            this.strings = strings;
+        }
+
+        public void writeVarInt(int value) {
+            while ((value & ~0x7F) != 0) {
+                this.writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+
+            this.writeByte(value);
+        }
+
+        public void writeBoolean(boolean value) {
+            this.writeByte(value ? 1 : 0);
+        }
+
+        /**
+         * Write {@code value} as a reference into the string table
+         * of the document, so that repeated strings are only stored once
+         */
+        public void writeString(String value) {
+            this.writeVarInt(this.strings.stringIndices.computeIfAbsent(value, string -> {
+                this.strings.writeRawString(string);
+                return this.strings.stringCount++;
+            }));
+        }
+
+        private void writeRawString(CharSequence value) {
+            this.writeVarInt(value.length());
+
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+
+                if (c < 0x80) {
+                    this.writeByte(c);
+                } else if (c < 0x800) {
+                    this.writeByte(0xC0 | (c >> 6));
+                    this.writeByte(0x80 | (c & 0x3F));
+                } else {
+                    this.writeByte(0xE0 | (c >> 12));
+                    this.writeByte(0x80 | ((c >> 6) & 0x3F));
+                    this.writeByte(0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        private void writeBytes(byte[] bytes, int length) {
+            this.ensureCapacity(length);
+
+            System.arraycopy(bytes, 0, this.bytes, this.size, length);
+            this.size += length;
+        }
+
+        private void writeByte(int value) {
+            this.ensureCapacity(1);
+            this.bytes[this.size++] = (byte) value;
+        }
+
+        private void ensureCapacity(int additional) {
+            if (this.size + additional <= this.bytes.length) return;
+            this.bytes = Arrays.copyOf(this.bytes, Math.max(this.size + additional, this.bytes.length * 2));
+        }
+    }
+
+    public static final class Input {
+
+        private final ByteBuffer buffer;
+        private String[] strings = new String[0];
+
+        private Input(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        public int readVarInt() {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = this.buffer.get();
+                value |= (b & 0x7F) << shift;
+
+                if ((b & 0x80) == 0) return value;
+            }
+
+            throw new IllegalArgumentException("Malformed variable-length integer");
+        }
+
+        public boolean readBoolean() {
+            return this.buffer.get() != 0;
+        }
+
+        public String readString() {
+            int index = this.readVarInt();
+            if (index < 0 || index >= this.strings.length) throw new IllegalArgumentException("String index " + index + " is out of bounds");
+
+            return this.strings[index];
+        }
+
+        /**
+         * Read a non-negative count of things which take up at least one byte
+         * each, which therefore cannot exceed the remaining size of the buffer
+         */
+        private int readLength() {
+            int length = this.readVarInt();
+            if (length < 0 || length > this.buffer.remaining()) throw new IllegalArgumentException("Length " + length + " exceeds the encoded document");
+
+            return length;
+        }
+
+        private String readRawString() {
+            var chars = new char[this.readLength()];
+
+            for (int i = 0; i < chars.length; i++) {
+                int b = this.buffer.get();
+
+                if ((b & 0x80) == 0) {
+                    chars[i] = (char) b;
+                } else if ((b & 0xE0) == 0xC0) {
+                    chars[i] = (char) (((b & 0x1F) << 6) | (this.buffer.get() & 0x3F));
+                } else {
+                    chars[i] = (char) (((b & 0x0F) << 12) | ((this.buffer.get() & 0x3F) << 6) | (this.buffer.get() & 0x3F));
+                }
+            }
+
+            return new String(chars);
+        }
+    }
+
+    private record RegisteredCodec<N extends Parser.Node>(String id, Class<N> nodeClass, NodeCodec<N> codec) {}
+}
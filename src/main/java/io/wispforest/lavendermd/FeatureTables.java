@@ -0,0 +1,77 @@
+package io.wispforest.lavendermd;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import io.wispforest.lavendermd.compiler.MarkdownCompiler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The frozen lexer, parser and codec which a feature-set registers into. These are
+ * interned by the {@linkplain MarkdownFeature#registrationKey() registration keys} of the
+ * features, so that all processors with equivalent feature-sets - most notably a processor
+ * and its copies - share a single instance, and the features only have to be registered once
+ */
+final class FeatureTables {
+
+    // tables are only kept for as long as some processor uses them
+    private static final Cache<Key, FeatureTables> INTERNED = CacheBuilder.newBuilder().weakValues().build();
+
+    final List<MarkdownFeature> features;
+    final Lexer lexer;
+    final Parser parser;
+    final DocumentCodec codec;
+
+    // classes of compilers which all features have been checked
+    // to support, see MarkdownFeature#supportsCompiler
+    private final Set<Class<?>> supportedCompilers = ConcurrentHashMap.newKeySet();
+
+    private FeatureTables(List<MarkdownFeature> features) {
+        this.features = features;
+
+        this.lexer = new Lexer();
+        this.parser = new Parser();
+
+        for (var feature : features) {
+            this.lexer.registerTokens(feature);
+            feature.registerNodes(this.parser);
+        }
+
+        this.lexer.freeze();
+        this.parser.freeze();
+
+        this.codec = new DocumentCodec(features);
+    }
+
+    /**
+     * @return The tables shared by all feature-sets equivalent to {@code features}
+     */
+    static FeatureTables of(List<MarkdownFeature> features) {
+        var key = new ArrayList<>(features.size() * 2);
+        for (var feature : features) {
+            key.add(feature.getClass());
+            key.add(feature.registrationKey());
+        }
+
+        return INTERNED.asMap().computeIfAbsent(new Key(key), $ -> new FeatureTables(ImmutableList.copyOf(features)));
+    }
+
+    /**
+     * Ensure that all features support {@code compiler}. Since features decide this
+     * based on the type of the compiler, every class of compiler is only checked once
+     *
+     * @throws IllegalStateException If any feature does not support {@code compiler}
+     */
+    void checkSupports(MarkdownCompiler<?> compiler) {
+        if (this.supportedCompilers.contains(compiler.getClass())) return;
+
+        MarkdownProcessor.checkCompatibility(this.features, compiler);
+        this.supportedCompilers.add(compiler.getClass());
+    }
+
+    private record Key(List<Object> classesAndKeys) {}
+}
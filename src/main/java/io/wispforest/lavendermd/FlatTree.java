@@ -0,0 +1,331 @@
+package io.wispforest.lavendermd;
+
+import io.wispforest.lavendermd.compiler.MarkdownCompiler;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A compact, immutable representation of an AST produced by the {@link Parser}. Instead
+ * of a graph of node objects which each hold a list of their children, the nodes are stored
+ * in preorder as parallel arrays of node kinds and parent and next-sibling indices. Of each node,
+ * only what is needed to visit it is retained in a side table of payloads - the content of
+ * text nodes as a range of a single string shared by all of them, nothing for plain containers,
+ * and a childless copy of every other node which carries its styles, identifiers or stacks. Nodes
+ * which override {@link Parser.Node#visit(MarkdownCompiler)} are the exception, as they are retained
+ * along with their entire subtree so that they can still be visited through their override
+ * <p>
+ * Visiting a flat tree is equivalent to visiting the tree it was created from, but does not
+ * require a stack at all. Since nodes are ordered in preorder, the first child of a node
+ * always directly follows it
+ */
+public final class FlatTree {
+
+    /**
+     * A node which only groups its children, created by {@link Parser.Node#empty()}
+     */
+    public static final byte KIND_CONTAINER = 0;
+
+    /**
+     * A {@link Parser.TextNode}, retained as its content
+     */
+    public static final byte KIND_TEXT = 1;
+
+    /**
+     * Any other node, retained as a copy without children
+     */
+    public static final byte KIND_NODE = 2;
+
+    /**
+     * A node which overrides {@link Parser.Node#visit(MarkdownCompiler)}, retained as is along with
+     * its subtree - it never has children in the flat tree, and is visited through its override
+     */
+    public static final byte KIND_SUBTREE = 3;
+
+    private final byte[] kinds;
+    private final int[] parents, nextSiblings;
+
+    // per node, the index of its payload in the table for its kind
+    private final int[] payloads;
+
+    // text node i spans [textOffsets[i], textOffsets[i + 1]) of text
+    private final String text;
+    private final int[] textOffsets;
+
+    private final Parser.Node[] nodes;
+
+    FlatTree(byte[] kinds, int[] parents, int[] nextSiblings, int[] payloads, String text, int[] textOffsets, Parser.Node[] nodes) {
+        this.kinds = kinds;
+        this.parents = parents;
+        this.nextSiblings = nextSiblings;
+        this.payloads = payloads;
+        this.text = text;
+        this.textOffsets = textOffsets;
+        this.nodes = nodes;
+    }
+
+    /**
+     * Flatten the tree rooted at {@code root}. The nodes of the tree are not modified, and
+     * none of them are retained by the result apart from those of {@link #KIND_SUBTREE}
+     */
+    public static FlatTree of(Parser.Node root) {
+        var builder = new Builder();
+
+        var stack = new ArrayDeque<BuildFrame>();
+        stack.push(new BuildFrame(builder.add(root, -1), root.children.iterator()));
+
+        while (!stack.isEmpty()) {
+            var frame = stack.peek();
+            if (!frame.children.hasNext()) {
+                stack.pop();
+                continue;
+            }
+
+            var child = frame.children.next();
+            int index = builder.add(child, frame.index);
+
+            if (frame.lastChild != -1) builder.nextSiblings[frame.lastChild] = index;
+            frame.lastChild = index;
+
+            if (builder.kinds[index] != KIND_SUBTREE) stack.push(new BuildFrame(index, child.children.iterator()));
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Visit all nodes of this tree in order, invoking their start before
+     * and their end after their children, just like {@link Parser.Node#visit(MarkdownCompiler)}
+     */
+    public void visit(MarkdownCompiler<?> compiler) {
+        this.visit(compiler, null);
+    }
+
+    /**
+     * Visit this tree like {@link #visit(MarkdownCompiler)}, emitting nodes
+     * within {@code budget} like {@link Parser.Node#visit(MarkdownCompiler)} does
+     */
+    void visit(MarkdownCompiler<?> compiler, @Nullable ProcessingBudget budget) {
+        // whether each node on the path from the root was emitted,
+        // only tracked once the budget runs out for the first time
+        BitSet emitted = null;
+
+        int node = 0;
+        while (true) {
+            if (budget == null || budget.tryEmitNode()) {
+                this.visitStart(node, compiler);
+            } else {
+                if (emitted == null) {
+                    emitted = new BitSet();
+                    for (int ancestor = this.parents[node]; ancestor != -1; ancestor = this.parents[ancestor]) {
+                        emitted.set(ancestor);
+                    }
+                }
+
+                if (this.kinds[node] == KIND_TEXT) {
+                    budget.overflow(this.text(node));
+                } else if (this.kinds[node] == KIND_SUBTREE) {
+                    overflowText(this.nodes[this.payloads[node]], budget);
+                }
+            }
+
+            int child = this.firstChild(node);
+            if (child != -1) {
+                node = child;
+                continue;
+            }
+
+            // end this node along with every ancestor of which it is the last child
+            while (true) {
+                if (emitted == null || emitted.get(node)) {
+                    if (budget != null) budget.flushOverflow(compiler);
+                    this.visitEnd(node, compiler);
+                }
+
+                if (this.nextSiblings[node] != -1) {
+                    node = this.nextSiblings[node];
+                    break;
+                }
+
+                node = this.parents[node];
+                if (node == -1) return;
+            }
+        }
+    }
+
+    private void visitStart(int node, MarkdownCompiler<?> compiler) {
+        switch (this.kinds[node]) {
+            case KIND_TEXT -> compiler.visitText(this.text(node));
+            case KIND_NODE -> this.nodes[this.payloads[node]].visitStart(compiler);
+            case KIND_SUBTREE -> this.nodes[this.payloads[node]].visit(compiler);
+        }
+    }
+
+    // collect the text of a subtree which the budget did not allow
+    // emitting, like the traversal of the pointer tree does
+    private static void overflowText(Parser.Node root, ProcessingBudget budget) {
+        var stack = new ArrayDeque<Iterator<Parser.Node>>();
+        stack.push(root.children.iterator());
+
+        while (!stack.isEmpty()) {
+            var children = stack.peek();
+            if (!children.hasNext()) {
+                stack.pop();
+                continue;
+            }
+
+            var child = children.next();
+            if (child instanceof Parser.TextNode text) budget.overflow(text.content());
+            stack.push(child.children.iterator());
+        }
+    }
+
+    private void visitEnd(int node, MarkdownCompiler<?> compiler) {
+        if (this.kinds[node] == KIND_NODE) this.nodes[this.payloads[node]].visitEnd(compiler);
+    }
+
+    /**
+     * @return The amount of nodes in this tree, the root of which is node {@code 0}
+     */
+    public int size() {
+        return this.kinds.length;
+    }
+
+    public byte kind(int node) {
+        return this.kinds[node];
+    }
+
+    /**
+     * @return The parent of {@code node}, or {@code -1} if it is the root
+     */
+    public int parent(int node) {
+        return this.parents[node];
+    }
+
+    /**
+     * @return The first child of {@code node}, or {@code -1} if it has none
+     */
+    public int firstChild(int node) {
+        return node + 1 < this.kinds.length && this.parents[node + 1] == node ? node + 1 : -1;
+    }
+
+    /**
+     * @return The sibling following {@code node}, or {@code -1} if it is the last child of its parent
+     */
+    public int nextSibling(int node) {
+        return this.nextSiblings[node];
+    }
+
+    /**
+     * @return The content of {@code node}, which must be of kind {@link #KIND_TEXT}
+     */
+    public String text(int node) {
+        if (this.kinds[node] != KIND_TEXT) throw new IllegalArgumentException("Node " + node + " is not a text node");
+
+        int text = this.payloads[node];
+        return this.text.substring(this.textOffsets[text], this.textOffsets[text + 1]);
+    }
+
+    /**
+     * @return The childless copy of {@code node} if it is of kind {@link #KIND_NODE},
+     * or the node itself along with its subtree if it is of kind {@link #KIND_SUBTREE}
+     */
+    public Parser.Node node(int node) {
+        if (this.kinds[node] != KIND_NODE && this.kinds[node] != KIND_SUBTREE) {
+            throw new IllegalArgumentException("Node " + node + " is neither of kind NODE nor SUBTREE");
+        }
+
+        return this.nodes[this.payloads[node]];
+    }
+
+    /**
+     * @return A rough estimate of the memory this tree retains in bytes,
+     * counting each payload node at the size of a typical node
+     */
+    long estimatedSize() {
+        return 5L * 16 + (long) this.kinds.length * (1 + 3 * 4)
+                + 40 + 2L * this.text.length()
+                + 4L * this.textOffsets.length
+                + 48L * this.nodes.length;
+    }
+
+    private static final class BuildFrame {
+        private final int index;
+        private final Iterator<Parser.Node> children;
+        private int lastChild = -1;
+
+        private BuildFrame(int index, Iterator<Parser.Node> children) {
+            this.index = index;
+            this.children = children;
+        }
+    }
+
+    private static final class Builder {
+        private int size = 0;
+
+        private byte[] kinds = new byte[16];
+        private int[] parents = new int[16], nextSiblings = new int[16], payloads = new int[16];
+
+        private final StringBuilder text = new StringBuilder();
+        private int[] textOffsets = new int[16];
+        private int textCount = 0;
+
+        private final List<Parser.Node> nodes = new ArrayList<>();
+
+        private int add(Parser.Node node, int parent) {
+            if (this.size == this.kinds.length) {
+                int length = this.size * 2;
+                this.kinds = Arrays.copyOf(this.kinds, length);
+                this.parents = Arrays.copyOf(this.parents, length);
+                this.nextSiblings = Arrays.copyOf(this.nextSiblings, length);
+                this.payloads = Arrays.copyOf(this.payloads, length);
+            }
+
+            int index = this.size++;
+            this.parents[index] = parent;
+            this.nextSiblings[index] = -1;
+
+            if (node instanceof Parser.TextNode text) {
+                if (this.textCount + 1 >= this.textOffsets.length) {
+                    this.textOffsets = Arrays.copyOf(this.textOffsets, this.textOffsets.length * 2);
+                }
+
+                this.text.append(text.content());
+
+                this.kinds[index] = KIND_TEXT;
+                this.payloads[index] = this.textCount;
+                this.textOffsets[++this.textCount] = this.text.length();
+            } else if (node instanceof Parser.ContainerNode) {
+                this.kinds[index] = KIND_CONTAINER;
+            } else if (Parser.Node.hasCustomVisit(node)) {
+                // nodes are immutable, so the subtree can be shared with the original tree
+                this.kinds[index] = KIND_SUBTREE;
+                this.payloads[index] = this.nodes.size();
+                this.nodes.add(node);
+            } else {
+                this.kinds[index] = KIND_NODE;
+                this.payloads[index] = this.nodes.size();
+                this.nodes.add(node.withoutChildren());
+            }
+
+            return index;
+        }
+
+        private FlatTree build() {
+            return new FlatTree(
+                    Arrays.copyOf(this.kinds, this.size),
+                    Arrays.copyOf(this.parents, this.size),
+                    Arrays.copyOf(this.nextSiblings, this.size),
+                    Arrays.copyOf(this.payloads, this.size),
+                    this.text.toString(),
+                    Arrays.copyOf(this.textOffsets, this.textCount + 1),
+                    this.nodes.toArray(Parser.Node[]::new)
+            );
+        }
+    }
+}
@@ -1,23 +1,50 @@
 package io.wispforest.lavendermd;
 
+import io.wispforest.lavendermd.util.SourceSpan;
 import io.wispforest.lavendermd.util.StringNibbler;
 import it.unimi.dsi.fastutil.chars.Char2ObjectLinkedOpenHashMap;
 import it.unimi.dsi.fastutil.chars.Char2ObjectMap;
+import org.jetbrains.annotations.Nullable;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.function.Supplier;
 
 public class Lexer implements MarkdownFeature.TokenRegistrar {
 
-    private final Char2ObjectMap<List<LexFunction>> lexFunctions = new Char2ObjectLinkedOpenHashMap<>();
+    /**
+     * Compiles a trigger set into the SIMD backend for scanning runs of plain text, which lives in
+     * the separate {@code vector} source set as it is built against the incubating {@code jdk.incubator.vector}
+     * module. This is {@code null} unless that module has been added to the runtime (via {@code --add-modules jdk.incubator.vector})
+     * and the {@code lavendermd.disableVectorScanning} system property is not set - the scalar loop is used then
+     */
+    private static final @Nullable MethodHandle VECTOR_SCANNER_COMPILER = vectorScannerCompiler();
+
+    private final Char2ObjectMap<List<Registration>> lexFunctions = new Char2ObjectLinkedOpenHashMap<>();
+    private final Map<String, List<Registration>> prefixLexFunctions = new LinkedHashMap<>();
+    private @Nullable DispatchTable dispatchTable = null;
+
+    // every registration, in order, along with the feature which
+    // made it - this is what lex-functions are identified by in reports
+    private final List<Registration> registrations = new ArrayList<>();
+    private String registeringFeature = "lexer";
 
     public Lexer() {
         // newlines
         this.registerToken((nibbler, tokens) -> {
-            var newlines = nibbler.consumeUntilEndOr(c -> c != '\n');
-            if (newlines.length() > 1) {
-                tokens.add(new NewlineToken("\n".repeat(newlines.length() - 1), true));
+            int start = nibbler.cursor();
+
+            int newlines = nibbler.skipWhile(c -> c == '\n');
+            if (newlines > 1) {
+                tokens.add(new NewlineToken(nibbler.consumedSince(start + 1), true));
             } else {
                 tokens.add(new NewlineToken(" ", false));
             }
@@ -28,13 +55,13 @@ public class Lexer implements MarkdownFeature.TokenRegistrar {
         // token escapes
         this.registerToken((nibbler, tokens) -> {
             nibbler.skip();
-            var escaped = nibbler.next();
-            if (escaped == null || !this.lexFunctions.containsKey(escaped.charValue())) return false;
+            int escaped = nibbler.read();
+            if (escaped == StringNibbler.EOF || !this.dispatchTable().isTrigger((char) escaped)) return false;
 
             if (escaped == '\n') {
                 tokens.add(new NewlineToken("\n", false));
             } else {
-                appendText(tokens, escaped);
+                appendText(tokens, nibbler.string, nibbler.cursor() - 1, nibbler.cursor());
             }
 
             return true;
@@ -43,7 +70,72 @@ public class Lexer implements MarkdownFeature.TokenRegistrar {
 
     @Override
     public void registerToken(LexFunction lexer, char trigger) {
-        this.lexFunctions.computeIfAbsent(trigger, character -> new ArrayList<>()).add(0, lexer);
+        if (this.dispatchTable != null) {
+            throw new IllegalStateException("Cannot register tokens on a frozen lexer");
+        }
+
+        this.lexFunctions.computeIfAbsent(trigger, character -> new ArrayList<>()).add(0, this.register(lexer, String.valueOf(trigger)));
+    }
+
+    @Override
+    public void registerToken(LexFunction lexer, String trigger) {
+        if (trigger.isEmpty()) throw new IllegalArgumentException("Token triggers must not be empty");
+        if (trigger.length() == 1) {
+            this.registerToken(lexer, trigger.charAt(0));
+            return;
+        }
+
+        if (this.dispatchTable != null) {
+            throw new IllegalStateException("Cannot register tokens on a frozen lexer");
+        }
+
+        this.prefixLexFunctions.computeIfAbsent(trigger, prefix -> new ArrayList<>()).add(0, this.register(lexer, trigger));
+    }
+
+    private Registration register(LexFunction function, String trigger) {
+        var registration = new Registration(function, this.registrations.size(), this.registeringFeature, trigger);
+        this.registrations.add(registration);
+
+        return registration;
+    }
+
+    /**
+     * Register the tokens of {@code feature}, attributing its lex-functions to it
+     */
+    void registerTokens(MarkdownFeature feature) {
+        this.registeringFeature = feature.name();
+        try {
+            feature.registerTokens(this);
+        } finally {
+            this.registeringFeature = "lexer";
+        }
+    }
+
+    /**
+     * @return All lex-functions registered on this lexer, in the order they were registered in
+     */
+    List<Registration> registrations() {
+        return this.registrations;
+    }
+
+    /**
+     * Compile all lex-functions registered so far into this lexer's
+     * immutable dispatch table. After this has been called (either explicitly
+     * or implicitly by the first invocation of {@link #lex(String)}), no further
+     * tokens may be registered, and the lexer can be shared between threads
+     * which all lex through it at once
+     */
+    public Lexer freeze() {
+        this.dispatchTable();
+        return this;
+    }
+
+    private DispatchTable dispatchTable() {
+        if (this.dispatchTable == null) {
+            this.dispatchTable = new DispatchTable(this.lexFunctions, this.prefixLexFunctions);
+        }
+
+        return this.dispatchTable;
     }
 
     /**
@@ -55,47 +147,403 @@ public class Lexer implements MarkdownFeature.TokenRegistrar {
         boolean lex(StringNibbler nibbler, List<Token> tokens);
     }
 
+    /**
+     * Locates the next trigger character of a lexer in a fixed input string
+     */
+    @FunctionalInterface
+    interface TriggerScanner {
+        /**
+         * @return The index of the first trigger character at or after
+         * {@code from}, or the length of the input if there is none
+         */
+        int nextTrigger(int from);
+    }
+
+    /**
+     * A trigger set compiled for a scanning backend other than the scalar loop
+     */
+    interface CompiledTriggers {
+        /**
+         * @return A scanner over {@code input}, which may hand some or all of the
+         * input (for instance, if it is very short) to {@code scalar}
+         */
+        TriggerScanner scannerFor(String input, TriggerScanner scalar);
+    }
+
+    private static @Nullable MethodHandle vectorScannerCompiler() {
+        if (Boolean.getBoolean("lavendermd.disableVectorScanning") || ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return null;
+        }
+
+        try {
+            var scannerClass = Class.forName("io.wispforest.lavendermd.VectorTriggerScanner");
+            return MethodHandles.lookup()
+                    .findStatic(scannerClass, "compile", MethodType.methodType(scannerClass, char[].class))
+                    .asType(MethodType.methodType(CompiledTriggers.class, char[].class));
+        } catch (ReflectiveOperationException e) {
+            // the vector source set is not on the classpath
+            return null;
+        }
+    }
+
     public List<Token> lex(String input) {
+        var dispatch = this.dispatchTable();
+
         var tokens = new ArrayList<Token>();
         var nibbler = new StringNibbler(input.strip());
+        var scanner = dispatch.scannerFor(nibbler.string);
+
+        while (nibbler.hasNext()) {
+            lexNext(dispatch, scanner, nibbler, tokens, null);
+        }
+
+        return tokens;
+    }
+
+    /**
+     * Lazily lex {@code input} - instead of materializing the entire token list
+     * up front like {@link #lex(String)}, tokens are only produced as the returned
+     * iterator is advanced, which allows lexing to be interleaved with parsing
+     */
+    public Iterator<Token> stream(String input) {
+        return this.stream(input, null);
+    }
+
+    /**
+     * Lazily lex {@code input} like {@link #stream(String)}, collecting the
+     * lex-functions attempted, the rewinds of the nibbler, the tokens produced
+     * and the time spent lexing in {@code stats} as the stream is advanced
+     */
+    Iterator<Token> stream(String input, @Nullable LexStats stats) {
+        var dispatch = this.dispatchTable();
+        var nibbler = new StringNibbler(input.strip());
+
+        return new TokenStream(dispatch, dispatch.scannerFor(nibbler.string), nibbler, stats);
+    }
+
+    /**
+     * Lex from the cursor of {@code nibbler} up to and including the next boundary
+     * {@link NewlineToken} or the end of the input, whichever comes first
+     */
+    void lexBlock(StringNibbler nibbler, List<Token> tokens) {
+        var dispatch = this.dispatchTable();
+
+        // blocks are short, and the session re-creates the nibbler
+        // for every edit - setting up the vector scanner is not worth it here
+        TriggerScanner scanner = from -> dispatch.nextTrigger(nibbler.string, from);
 
         while (nibbler.hasNext()) {
-            char current = nibbler.peek();
-            if (this.lexFunctions.containsKey(current)) {
+            int tokenCount = tokens.size();
+            lexNext(dispatch, scanner, nibbler, tokens, null);
 
-                boolean matched = false;
-                for (var function : this.lexFunctions.get(current)) {
-                    if (!nibbler.tryMatch($ -> function.lex(nibbler, tokens))) continue;
+            if (tokens.size() > tokenCount && tokens.get(tokens.size() - 1) instanceof NewlineToken newline && newline.isBoundary()) {
+                return;
+            }
+        }
+    }
 
-                    matched = true;
-                    break;
-                }
+    private static void lexNext(DispatchTable dispatch, TriggerScanner scanner, StringNibbler nibbler, List<Token> tokens, @Nullable LexStats stats) {
+        char current = nibbler.peek();
 
-                if (!matched) {
-                    nibbler.skip();
-                    appendText(tokens, String.valueOf(current));
-                }
-            } else {
-                appendText(tokens, nibbler.consumeUntilEndOr(this.lexFunctions.keySet()::contains));
+        var trigger = dispatch.triggerFor(current);
+        if (trigger != null) {
+            if (!tryLex(trigger, 1, nibbler, tokens, stats)) {
+                nibbler.skip();
+                appendText(tokens, nibbler.string, nibbler.cursor() - 1, nibbler.cursor());
             }
+        } else {
+            int textStart = nibbler.cursor();
+            int textEnd = scanner.nextTrigger(textStart);
+
+            nibbler.skip(textEnd - textStart);
+            appendText(tokens, nibbler.string, textStart, textEnd);
         }
+    }
 
-        return tokens;
+    /**
+     * Walk down the trigger trie from {@code node}, which matched the input up to
+     * {@code depth} characters past the cursor, and try the lex-functions of the deepest
+     * matching node first - only falling back to shorter triggers if all of them fail
+     */
+    private static boolean tryLex(TriggerNode node, int depth, StringNibbler nibbler, List<Token> tokens, @Nullable LexStats stats) {
+        if (node.childKeys.length > 0) {
+            var child = node.child(nibbler.peekAt(depth));
+            if (child != null && tryLex(child, depth + 1, nibbler, tokens, stats)) return true;
+        }
+
+        for (int i = 0; i < node.functions.length; i++) {
+            int mark = nibbler.mark();
+            if (stats != null) stats.attempts[node.registrations[i]]++;
+
+            if (node.functions[i].lex(nibbler, tokens)) {
+                if (stats != null) stats.successes[node.registrations[i]]++;
+                return true;
+            }
+
+            nibbler.reset(mark);
+        }
+
+        return false;
     }
 
-    private static void appendText(List<Token> tokens, String text) {
+    /**
+     * Append the range {@code [start, end)} of {@code source} to {@code tokens} as plain text,
+     * merging it into the last token if that is a {@link TextToken} - this is what the lexer
+     * does with any character that no lex-function consumed
+     */
+    public static void appendText(List<Token> tokens, String source, int start, int end) {
         if (!tokens.isEmpty() && tokens.get(tokens.size() - 1) instanceof TextToken textToken) {
-            textToken.append(text);
+            textToken.append(source, start, end);
         } else {
-            tokens.add(new TextToken(text));
+            tokens.add(new TextToken(source, start, end));
         }
     }
 
-    private static void appendText(List<Token> tokens, char text) {
-        if (!tokens.isEmpty() && tokens.get(tokens.size() - 1) instanceof TextToken textToken) {
-            textToken.append(text);
-        } else {
-            tokens.add(new TextToken(String.valueOf(text)));
+    private static final class TokenStream implements Iterator<Token> {
+
+        private final DispatchTable dispatch;
+        private final TriggerScanner scanner;
+        private final StringNibbler nibbler;
+        private final @Nullable LexStats stats;
+
+        private final List<Token> pending = new ArrayList<>();
+
+        private TokenStream(DispatchTable dispatch, TriggerScanner scanner, StringNibbler nibbler, @Nullable LexStats stats) {
+            this.dispatch = dispatch;
+            this.scanner = scanner;
+            this.nibbler = nibbler;
+            this.stats = stats;
+        }
+
+        @Override
+        public boolean hasNext() {
+            // the last pending token might still be extended by
+            // subsequent text, so it may only be handed out once
+            // another token follows it or the input is exhausted
+            if (this.stats == null) {
+                while (this.pending.size() < 2 && this.nibbler.hasNext()) {
+                    lexNext(this.dispatch, this.scanner, this.nibbler, this.pending, null);
+                }
+            } else if (this.pending.size() < 2 && this.nibbler.hasNext()) {
+                this.lexMeasured(this.stats);
+            }
+
+            return !this.pending.isEmpty();
+        }
+
+        private void lexMeasured(LexStats stats) {
+            long start = System.nanoTime();
+            int pendingBefore = this.pending.size(), rewindsBefore = this.nibbler.rewinds();
+
+            while (this.pending.size() < 2 && this.nibbler.hasNext()) {
+                lexNext(this.dispatch, this.scanner, this.nibbler, this.pending, stats);
+            }
+
+            stats.tokens += this.pending.size() - pendingBefore;
+            stats.rewinds += this.nibbler.rewinds() - rewindsBefore;
+            stats.nanos += System.nanoTime() - start;
+        }
+
+        @Override
+        public Token next() {
+            if (!this.hasNext()) throw new NoSuchElementException();
+            return this.pending.remove(0);
+        }
+    }
+
+    /**
+     * Immutable, array-indexed form of a lexer's registrations. Characters
+     * are split into 256 pages of 256 entries each, and only pages which
+     * contain at least one trigger are allocated - this keeps lookups free
+     * of hashing and boxing while not paying for the entire BMP
+     * <p>
+     * Each entry is the root of a trie over all string triggers
+     * starting with that character
+     */
+    private static final class DispatchTable {
+
+        private final TriggerNode[][] pages = new TriggerNode[256][];
+
+        // bitset of all ascii triggers, which lets the scalar
+        // scan skip the page lookup for the common case
+        private long asciiLow = 0, asciiHigh = 0;
+
+        private final @Nullable CompiledTriggers vectorScanner;
+
+        private DispatchTable(Char2ObjectMap<List<Registration>> lexFunctions, Map<String, List<Registration>> prefixLexFunctions) {
+            var triggers = new StringBuilder();
+
+            for (var entry : lexFunctions.char2ObjectEntrySet()) {
+                this.root(entry.getCharKey(), triggers).setFunctions(entry.getValue());
+            }
+
+            for (var entry : prefixLexFunctions.entrySet()) {
+                var trigger = entry.getKey();
+
+                var node = this.root(trigger.charAt(0), triggers);
+                for (int i = 1; i < trigger.length(); i++) {
+                    node = node.childOrCreate(trigger.charAt(i));
+                }
+
+                node.setFunctions(entry.getValue());
+            }
+
+            this.vectorScanner = compileVectorScanner(triggers.toString().toCharArray());
+        }
+
+        private static @Nullable CompiledTriggers compileVectorScanner(char[] triggers) {
+            if (VECTOR_SCANNER_COMPILER == null) return null;
+
+            try {
+                return (CompiledTriggers) VECTOR_SCANNER_COMPILER.invokeExact(triggers);
+            } catch (Throwable e) {
+                throw new IllegalStateException("Failed to compile vector trigger scanner", e);
+            }
+        }
+
+        private TriggerNode root(char trigger, StringBuilder triggers) {
+            var page = this.pages[trigger >>> 8];
+            if (page == null) page = this.pages[trigger >>> 8] = new TriggerNode[256];
+
+            var root = page[trigger & 0xFF];
+            if (root == null) {
+                root = page[trigger & 0xFF] = new TriggerNode();
+                triggers.append(trigger);
+
+                if (trigger < 64) {
+                    this.asciiLow |= 1L << trigger;
+                } else if (trigger < 128) {
+                    this.asciiHigh |= 1L << trigger;
+                }
+            }
+
+            return root;
+        }
+
+        /**
+         * @return The scanner to use for locating triggers in {@code input}
+         */
+        private TriggerScanner scannerFor(String input) {
+            TriggerScanner scalar = from -> this.nextTrigger(input, from);
+
+            if (this.vectorScanner == null) return scalar;
+            return this.vectorScanner.scannerFor(input, scalar);
+        }
+
+        /**
+         * @return The root of the trigger trie for {@code c},
+         * or {@code null} if {@code c} is not a trigger
+         */
+        private @Nullable TriggerNode triggerFor(char c) {
+            var page = this.pages[c >>> 8];
+            return page != null ? page[c & 0xFF] : null;
+        }
+
+        private boolean isTrigger(char c) {
+            return this.triggerFor(c) != null;
+        }
+
+        /**
+         * @return The index of the first trigger character in {@code input}
+         * at or after {@code from}, or the length of {@code input} if there is none
+         */
+        private int nextTrigger(String input, int from) {
+            int length = input.length();
+            for (int i = from; i < length; i++) {
+                char c = input.charAt(i);
+
+                if (c < 128) {
+                    if (((c < 64 ? this.asciiLow : this.asciiHigh) >>> c & 1) != 0) return i;
+                    continue;
+                }
+
+                var page = this.pages[c >>> 8];
+                if (page != null && page[c & 0xFF] != null) return i;
+            }
+
+            return length;
+        }
+    }
+
+    /**
+     * A node in the trie of string triggers, holding the lex-functions (in order
+     * of priority) whose trigger ends at this node. Nodes are only mutated
+     * while their dispatch table is being built
+     */
+    private static final class TriggerNode {
+
+        private static final LexFunction[] NO_FUNCTIONS = new LexFunction[0];
+
+        private LexFunction[] functions = NO_FUNCTIONS;
+        private int[] registrations = new int[0];
+
+        private char[] childKeys = new char[0];
+        private TriggerNode[] children = new TriggerNode[0];
+
+        private void setFunctions(List<Registration> registrations) {
+            this.functions = new LexFunction[registrations.size()];
+            this.registrations = new int[registrations.size()];
+
+            for (int i = 0; i < registrations.size(); i++) {
+                this.functions[i] = registrations.get(i).function;
+                this.registrations[i] = registrations.get(i).index;
+            }
+        }
+
+        private @Nullable TriggerNode child(int c) {
+            if (c == StringNibbler.EOF) return null;
+
+            int index = Arrays.binarySearch(this.childKeys, (char) c);
+            return index >= 0 ? this.children[index] : null;
+        }
+
+        private TriggerNode childOrCreate(char c) {
+            int index = Arrays.binarySearch(this.childKeys, c);
+            if (index >= 0) return this.children[index];
+
+            int insertAt = -index - 1;
+            var child = new TriggerNode();
+
+            var childKeys = new char[this.childKeys.length + 1];
+            var children = new TriggerNode[this.children.length + 1];
+
+            System.arraycopy(this.childKeys, 0, childKeys, 0, insertAt);
+            System.arraycopy(this.children, 0, children, 0, insertAt);
+            childKeys[insertAt] = c;
+            children[insertAt] = child;
+            System.arraycopy(this.childKeys, insertAt, childKeys, insertAt + 1, this.childKeys.length - insertAt);
+            System.arraycopy(this.children, insertAt, children, insertAt + 1, this.children.length - insertAt);
+
+            this.childKeys = childKeys;
+            this.children = children;
+
+            return child;
+        }
+    }
+
+    /**
+     * A lex-function as it was registered on a lexer
+     *
+     * @param index   The position of this registration among all registrations of its lexer
+     * @param feature The name of the feature which registered the function, or {@code lexer}
+     *                for functions which were registered on the lexer directly
+     */
+    record Registration(LexFunction function, int index, String feature, String trigger) {}
+
+    /**
+     * Counts of how often each lex-function of a lexer was attempted and
+     * succeeded, indexed by {@link Registration#index()}, along with how
+     * often the nibbler was rewound, how many tokens were produced and how
+     * much time was spent in the lexer while a {@linkplain #stream(String, LexStats) stream} was advanced
+     */
+    static final class LexStats {
+        final int[] attempts, successes;
+        int rewinds = 0, tokens = 0;
+        long nanos = 0;
+
+        LexStats(Lexer lexer) {
+            this.attempts = new int[lexer.registrations.size()];
+            this.successes = new int[lexer.registrations.size()];
         }
     }
 
@@ -108,6 +556,15 @@ public class Lexer implements MarkdownFeature.TokenRegistrar {
             this.content = content;
         }
 
+        /**
+         * Create a token whose content is {@code content}, which is copied
+         * right away - for instance a view of the source such as
+         * {@link io.wispforest.lavendermd.util.StringNibbler#consumedSince(int)}
+         */
+        protected Token(CharSequence content) {
+            this(content.toString());
+        }
+
         public String content() {
             return this.content;
         }
@@ -126,37 +583,81 @@ public class Lexer implements MarkdownFeature.TokenRegistrar {
         }
     }
 
+    /**
+     * A run of plain text. As long as all text appended to it is contiguous
+     * in the source, this token only tracks a range of the source string - its
+     * content is copied out lazily, at most once
+     */
     public static final class TextToken extends Token {
 
-        private final StringBuilder contentBuilder;
+        private final String source;
+        private final int start;
+        private int end;
 
-        private String contentCache = "";
-        private boolean dirty = true;
+        private @Nullable StringBuilder detachedContent = null;
+        private @Nullable SourceSpan contentCache = null;
 
         public TextToken(String content) {
+            this(content, 0, content.length());
+        }
+
+        public TextToken(String source, int start, int end) {
             super("");
-            this.contentBuilder = new StringBuilder(content);
+            this.source = source;
+            this.start = start;
+            this.end = end;
         }
 
         public void append(String content) {
-            this.contentBuilder.append(content);
-            this.dirty = true;
+            this.detach().append(content);
+            this.contentCache = null;
         }
 
         public void append(char content) {
-            this.contentBuilder.append(content);
-            this.dirty = true;
+            this.detach().append(content);
+            this.contentCache = null;
         }
 
-        @Override
-        public String content() {
-            if (this.dirty) {
-                this.contentCache = this.contentBuilder.toString();
-                this.dirty = false;
+        /**
+         * Append the range {@code [start, end)} of {@code source} to this token,
+         * which only extends the tracked range if it directly follows the text
+         * already contained in this token
+         */
+        public void append(String source, int start, int end) {
+            if (this.detachedContent == null && this.source == source && this.end == start) {
+                this.end = end;
+            } else {
+                this.detach().append(source, start, end);
+            }
+
+            this.contentCache = null;
+        }
+
+        private StringBuilder detach() {
+            if (this.detachedContent == null) {
+                this.detachedContent = new StringBuilder(this.end - this.start + 16).append(this.source, this.start, this.end);
+            }
+
+            return this.detachedContent;
+        }
+
+        /**
+         * @return A lazy view of this token's content
+         */
+        public SourceSpan contentView() {
+            if (this.contentCache == null) {
+                this.contentCache = this.detachedContent != null
+                        ? SourceSpan.of(this.detachedContent.toString())
+                        : new SourceSpan(this.source, this.start, this.end);
             }
 
             return this.contentCache;
         }
+
+        @Override
+        public String content() {
+            return this.contentView().toString();
+        }
     }
 
     public static final class NewlineToken extends Token {
@@ -168,6 +669,10 @@ public class Lexer implements MarkdownFeature.TokenRegistrar {
             this.isBoundary = isBoundary;
         }
 
+        public NewlineToken(CharSequence content, boolean isBoundary) {
+            this(content.toString(), isBoundary);
+        }
+
         @Override
         public boolean isBoundary() {
             return this.isBoundary;
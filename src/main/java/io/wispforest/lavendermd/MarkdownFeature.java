@@ -5,6 +5,7 @@ import io.wispforest.lavendermd.util.ListNibbler;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
 
 /**
  * A Markdown feature implements a set of tokens and AST nodes
@@ -24,8 +25,37 @@ public interface MarkdownFeature {
      * invoked on has passed the check in this method. Notably - if this method does
      * a type-check, all compilers used on this feature's nodes are guaranteed
      * to be of said type
+     * <p>
+     * By default, this defers to {@link #supportsCompiler(Class)} with the class of {@code compiler}
+     */
+    default boolean supportsCompiler(MarkdownCompiler<?> compiler) {
+        return this.supportsCompiler(compiler.getClass());
+    }
+
+    /**
+     * Return {@code false} if this feature does not know how to invoke any compiler of type
+     * {@code compilerClass}. Processors whose compiler factory is a {@link io.wispforest.lavendermd.compiler.CompilerFactory}
+     * check this when they are constructed, without creating a compiler, so features which type-check
+     * their compiler should do so here. Features which can only decide given an actual compiler
+     * return {@code true} and override {@link #supportsCompiler(MarkdownCompiler)} instead
+     */
+    default boolean supportsCompiler(Class<?> compilerClass) {
+        return true;
+    }
+
+    /**
+     * @return An object identifying everything about this feature's configuration which affects
+     * what it registers, such that any two features of the same class with equal keys register
+     * equivalent tokens, nodes and codecs. Processors with equivalent feature-sets share their
+     * frozen lexer and parser, which only requires the features to be registered once
+     * <p>
+     * By default, every instance is its own key and is therefore only equivalent to itself.
+     * Features without configuration should return their class instead, and subclasses
+     * which add configuration must include it in their key
      */
-    boolean supportsCompiler(MarkdownCompiler<?> compiler);
+    default Object registrationKey() {
+        return this;
+    }
 
     /**
      * Add this feature's set of tokens to {@code registrar}
@@ -37,6 +67,14 @@ public interface MarkdownFeature {
      */
     void registerNodes(NodeRegistrar registrar);
 
+    /**
+     * Add codecs for this feature's nodes to {@code registrar}, which allows
+     * documents containing them to be {@linkplain MarkdownProcessor#encode(Document) encoded}.
+     * Features which do not register a codec for some node cannot have
+     * documents containing such nodes encoded
+     */
+    default void registerCodecs(CodecRegistrar registrar) {}
+
     @FunctionalInterface
     interface TokenRegistrar {
         /**
@@ -54,6 +92,21 @@ public interface MarkdownFeature {
                 this.registerToken(lexer, trigger);
             }
         }
+
+        /**
+         * Register {@code lexer} to be invoked when the string {@code trigger}
+         * is encountered while lexing the Markdown input. Just like with single-character
+         * triggers, {@code lexer} is invoked with the cursor on the first character of {@code trigger}
+         * <p>
+         * Lexers with longer triggers take priority over those with shorter ones which
+         * match at the same position, which means that features registering only on
+         * the first character of a string trigger are tried after it
+         */
+        default void registerToken(Lexer.LexFunction lexer, String trigger) {
+            if (trigger.isEmpty()) throw new IllegalArgumentException("Token triggers must not be empty");
+
+            this.registerToken((nibbler, tokens) -> nibbler.expect(0, trigger) && lexer.lex(nibbler, tokens), trigger.charAt(0));
+        }
     }
 
     @FunctionalInterface
@@ -63,6 +116,56 @@ public interface MarkdownFeature {
          * returns a token of type {@code T} from the incoming stream
          */
         <T extends Lexer.Token> void registerNode(Parser.ParseFunction<T> parser, BiFunction<Lexer.Token, ListNibbler<Lexer.Token>, @Nullable T> trigger);
+
+        /**
+         * Register {@code parser} to be invoked when a token of type {@code tokenClass}
+         * is encountered in the incoming stream and {@code condition} matches it.
+         * <p>
+         * Prefer this over {@link #registerNode(Parser.ParseFunction, BiFunction)} wherever
+         * possible - it allows the parser to only consider parse-functions which
+         * can actually apply to a given token
+         */
+        default <T extends Lexer.Token> void registerNode(Parser.ParseFunction<T> parser, Class<T> tokenClass, BiPredicate<T, ListNibbler<Lexer.Token>> condition) {
+            this.registerNode(parser, (token, tokens) -> tokenClass.isInstance(token) && condition.test(tokenClass.cast(token), tokens) ? tokenClass.cast(token) : null);
+        }
+
+        /**
+         * Register {@code parser} to be invoked whenever a
+         * token of type {@code tokenClass} is encountered in the incoming stream
+         */
+        default <T extends Lexer.Token> void registerNode(Parser.ParseFunction<T> parser, Class<T> tokenClass) {
+            this.registerNode(parser, tokenClass, (token, tokens) -> true);
+        }
+
+        /**
+         * Register a construct enclosed by the pair of delimiters described by {@code delimiter}.
+         * Compared to a parse-function which looks for the closing delimiter itself, this
+         * lets the parser resolve delimiters without re-parsing their content when they turn
+         * out to be unmatched
+         */
+        default <O extends Lexer.Token, C extends Lexer.Token> void registerPairedNode(Parser.PairedDelimiter<O, C> delimiter) {
+            this.registerNode(delimiter::parseSpeculatively, delimiter.openerClass(), delimiter.canOpen());
+        }
+
+        /**
+         * Register a construct which contains the nodes following its opening token, as
+         * described by {@code container}. Compared to a parse-function which invokes
+         * {@link Parser#parseUntil(ListNibbler, java.util.function.Predicate, java.util.function.Predicate)}
+         * itself, this lets the parser nest such constructs without recursing
+         */
+        default <T extends Lexer.Token> void registerContainerNode(Parser.Container<T> container) {
+            this.registerNode(container::parseRecursively, container.openerClass(), container.canOpen());
+        }
     }
 
+    @FunctionalInterface
+    interface CodecRegistrar {
+        /**
+         * Register {@code codec} to encode and decode the payload of nodes of exactly
+         * type {@code nodeClass}. {@code id} is part of the fingerprint of encoded documents,
+         * so it must change whenever the encoding of the payload changes - this makes
+         * documents encoded before the change fail to decode, instead of decoding garbage
+         */
+        <N extends Parser.Node> void registerCodec(String id, Class<N> nodeClass, DocumentCodec.NodeCodec<N> codec);
+    }
 }
@@ -1,15 +1,26 @@
 package io.wispforest.lavendermd;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
+import io.wispforest.lavendermd.compiler.CompilerFactory;
 import io.wispforest.lavendermd.compiler.MarkdownCompiler;
 import io.wispforest.lavendermd.compiler.TextCompiler;
 import io.wispforest.lavendermd.feature.*;
 import net.minecraft.text.Text;
+import org.jetbrains.annotations.Nullable;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.function.Supplier;
 
 /**
@@ -21,38 +32,104 @@ import java.util.function.Supplier;
  * To create a processor, either use one of the default factories and optionally customize
  * them using the provided copyWith functions, or invoke the constructor and supply
  * the desired compiler factory and feature-set
+ * <p>
+ * Once constructed, a processor is immutable - its lexer and parser are frozen, and every
+ * invocation creates its own compiler and keeps all of its state to itself. Processors can
+ * therefore be shared between threads and used by all of them at once, see {@link #processAll(List, Executor)}.
+ * Processors with equivalent feature-sets share their lexer and parser, and {@link #canonical(Supplier, MarkdownFeature...)}
+ * shares entire processors
+ * <p>
+ * Whether the features of a processor support its compiler is checked when the processor is
+ * constructed if its compiler factory is a {@link CompilerFactory}, which describes its compilers
+ * without creating one - for other factories, it is checked when the processor creates its first
+ * compiler. Either throws an {@link IllegalStateException} if the features do not support the compiler
  */
 public class MarkdownProcessor<R> {
 
     private final Supplier<MarkdownCompiler<R>> compilerFactory;
 
     private final List<MarkdownFeature> features;
+    private final ProcessingLimits limits;
+    private final PassPipeline passes;
+
+    private final ResultCache.Settings cacheSettings;
+    private final @Nullable ResultCache cache;
+
+    private final ProcessingListener listener;
+    private final FeatureTables tables;
+
+    // processors are immutable, so those with default settings can be shared
+    private static final Cache<CanonicalKey, MarkdownProcessor<?>> CANONICAL = CacheBuilder.newBuilder().weakValues().build();
 
-    private final Lexer lexer;
-    private final Parser parser;
+    // whether the compilers of factories which do not describe them require the render thread, which
+    // can only be found out by creating a compiler - and is therefore only done once per factory
+    private static final Cache<Supplier<?>, Boolean> REQUIRES_RENDER_THREAD = CacheBuilder.newBuilder().weakKeys().build();
 
     public MarkdownProcessor(Supplier<MarkdownCompiler<R>> compilerFactory, MarkdownFeature... features) {
         this(compilerFactory, Arrays.asList(features));
     }
 
     public MarkdownProcessor(Supplier<MarkdownCompiler<R>> compilerFactory, List<MarkdownFeature> features) {
+        this(compilerFactory, features, ProcessingLimits.DEFAULT);
+    }
+
+    public MarkdownProcessor(Supplier<MarkdownCompiler<R>> compilerFactory, List<MarkdownFeature> features, ProcessingLimits limits) {
+        this(compilerFactory, features, limits, PassPipeline.DEFAULT);
+    }
+
+    public MarkdownProcessor(Supplier<MarkdownCompiler<R>> compilerFactory, List<MarkdownFeature> features, ProcessingLimits limits, PassPipeline passes) {
+        this(compilerFactory, features, FeatureTables.of(features), limits, passes, ResultCache.Settings.DISABLED, ProcessingListener.NONE);
+    }
+
+    private MarkdownProcessor(Supplier<MarkdownCompiler<R>> compilerFactory, List<MarkdownFeature> features, FeatureTables tables, ProcessingLimits limits, PassPipeline passes, ResultCache.Settings cacheSettings, ProcessingListener listener) {
         this.compilerFactory = compilerFactory;
         this.features = ImmutableList.copyOf(features);
+        this.tables = tables;
 
-        var testCompiler = this.compilerFactory.get();
-        for (var feature : this.features) {
-            if (!feature.supportsCompiler(testCompiler)) {
-                throw new IllegalStateException("Feature '" + feature.name() + "' is incompatible with compiler '" + testCompiler.name() + "'");
-            }
+        if (compilerFactory instanceof CompilerFactory<R> described) {
+            checkCompatibility(this.features, described.compilerClass());
         }
+        this.limits = limits;
+        this.passes = passes;
 
-        this.lexer = new Lexer();
-        this.parser = new Parser();
+        this.cacheSettings = cacheSettings;
+        this.cache = cacheSettings.enabled() ? new ResultCache(cacheSettings) : null;
 
-        for (var extension : features) {
-            extension.registerTokens(this.lexer);
-            extension.registerNodes(this.parser);
-        }
+        this.listener = listener;
+    }
+
+    /**
+     * Get the shared processor with {@code compilerFactory} and {@code features}, along with the default
+     * limits and passes and no cache. Processors are interned by the identity of their compiler factory -
+     * which should therefore be a constant or a method reference which does not capture anything - and
+     * the {@linkplain MarkdownFeature#registrationKey() registration keys} of their features, so that
+     * repeated calls with equivalent features return the same instance
+     */
+    @SuppressWarnings("unchecked")
+    public static <R> MarkdownProcessor<R> canonical(Supplier<MarkdownCompiler<R>> compilerFactory, MarkdownFeature... features) {
+        var tables = FeatureTables.of(Arrays.asList(features));
+        return (MarkdownProcessor<R>) CANONICAL.asMap().computeIfAbsent(
+                new CanonicalKey(compilerFactory, tables),
+                $ -> new MarkdownProcessor<>(compilerFactory, tables.features, tables, ProcessingLimits.DEFAULT, PassPipeline.DEFAULT, ResultCache.Settings.DISABLED, ProcessingListener.NONE)
+        );
+    }
+
+    private record CanonicalKey(Supplier<?> compilerFactory, FeatureTables tables) {}
+
+    /**
+     * Create a compiler from this processor's compiler factory,
+     * checking that all features support it if it is the first of its class
+     */
+    private MarkdownCompiler<R> createCompiler() {
+        var compiler = this.compilerFactory.get();
+        this.tables.checkSupports(compiler);
+
+        return compiler;
+    }
+
+    private boolean compilerRequiresRenderThread() {
+        if (this.compilerFactory instanceof CompilerFactory<R> described) return described.requiresRenderThread();
+        return REQUIRES_RENDER_THREAD.asMap().computeIfAbsent(this.compilerFactory, $ -> this.createCompiler().requiresRenderThread());
     }
 
     public Collection<MarkdownFeature> installedFeatures() {
@@ -69,11 +146,308 @@ public class MarkdownProcessor<R> {
         return false;
     }
 
+    public ProcessingLimits limits() {
+        return this.limits;
+    }
+
+    /**
+     * @return The passes this processor applies to the AST of its input between parsing and compiling it
+     */
+    public PassPipeline passes() {
+        return this.passes;
+    }
+
+    /**
+     * @return The cache of this processor's results, or {@code null} if it does not cache them
+     */
+    public @Nullable ResultCache cache() {
+        return this.cache;
+    }
+
+    /**
+     * @return The listener this processor reports on every input it processes to
+     */
+    public ProcessingListener listener() {
+        return this.listener;
+    }
+
+    /**
+     * Process {@code markdown} into this processor's result type. Whatever part of the
+     * input cannot be processed within this processor's {@linkplain #limits() limits}
+     * is emitted as literal text
+     * <p>
+     * If this processor has a {@linkplain #cache() cache}, the parsed input is looked up there first.
+     * Results are compiled fresh every time, since compilers generally produce mutable results
+     */
     public R process(String markdown) {
-        var compiler = this.compilerFactory.get();
+        var compiler = this.createCompiler();
+        var metrics = this.createMetrics();
+
+        var result = this.process(markdown, compiler, metrics);
+        if (metrics != null) this.listener.onProcessed(metrics.report());
 
-        this.parser.parse(this.lexer.lex(markdown)).visit(compiler);
-        return compiler.compile();
+        return result;
+    }
+
+    private R process(String markdown, MarkdownCompiler<R> compiler, @Nullable ProcessingMetrics metrics) {
+        if (this.cache == null) return this.process(markdown, compiler, new ProcessingBudget(this.limits), metrics);
+        return this.compile(this.parseDocument(markdown, null, metrics).tree(), compiler, metrics);
+    }
+
+    /**
+     * Process every string in {@code markdown} on the common fork-join pool
+     *
+     * @see #processAll(List, Executor)
+     */
+    public List<R> processAll(List<String> markdown) {
+        return this.processAll(markdown, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Process every string in {@code markdown} like {@link #process(String)}, spreading
+     * the work across {@code executor}. Should processing any of the strings fail, the
+     * first failure is rethrown once all others have finished
+     *
+     * @return The results, in the order of the strings they were processed from
+     * @throws IllegalStateException If this processor's compiler {@linkplain MarkdownCompiler#requiresRenderThread()
+     *                               requires the render thread}
+     */
+    @SuppressWarnings("unchecked")
+    public List<R> processAll(List<String> markdown, Executor executor) {
+        if (this.compilerRequiresRenderThread()) {
+            throw new IllegalStateException("The compiler of this processor must run on the render thread and cannot process in parallel");
+        }
+
+        var inputs = List.copyOf(markdown);
+        var results = new Object[inputs.size()];
+
+        // most inputs take less time to process than a task takes to schedule,
+        // so they are handed out in batches of a few per available thread
+        int batchSize = Math.max(1, inputs.size() / (4 * Runtime.getRuntime().availableProcessors()));
+
+        var batches = new CompletableFuture<?>[(inputs.size() + batchSize - 1) / batchSize];
+        for (int batch = 0; batch < batches.length; batch++) {
+            int from = batch * batchSize, to = Math.min(from + batchSize, inputs.size());
+
+            batches[batch] = CompletableFuture.runAsync(() -> {
+                for (int i = from; i < to; i++) {
+                    results[i] = this.process(inputs.get(i));
+                }
+            }, executor);
+        }
+
+        try {
+            CompletableFuture.allOf(batches).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            if (e.getCause() instanceof Error cause) throw cause;
+            throw e;
+        }
+
+        return Collections.unmodifiableList(Arrays.asList((R[]) results));
+    }
+
+    /**
+     * Process {@code markdown} in two stages - lex and parse it on {@code lexParseExecutor},
+     * then compile the resulting document on {@code compileExecutor}. This keeps all but
+     * the compiler off the render thread for compilers which {@linkplain MarkdownCompiler#requiresRenderThread()
+     * require it}, which should be given the client as their compile executor
+     * <p>
+     * Like {@link #compile(Document)}, the limits for parsing and for compiling apply to each
+     * stage separately. If this processor has a {@linkplain #cache() cache}, the parsed document
+     * is looked up there. Cancelling the returned future skips whichever stage has not started yet,
+     * and makes parsing stop early as if it had run out of time
+     *
+     * @return A future which completes with the result on {@code compileExecutor}
+     */
+    public CompletableFuture<R> processAsync(String markdown, Executor lexParseExecutor, Executor compileExecutor) {
+        var result = new CompletableFuture<R>();
+        var metrics = this.createMetrics();
+
+        CompletableFuture.supplyAsync(() -> result.isDone() ? null : this.parseDocument(markdown, result, metrics), lexParseExecutor)
+                .thenAcceptAsync(document -> {
+                    if (result.isDone()) return;
+
+                    var compiled = this.compile(document.tree(), this.createCompiler(), metrics);
+                    if (metrics != null) this.listener.onProcessed(metrics.report());
+
+                    result.complete(compiled);
+                }, compileExecutor)
+                .exceptionally(throwable -> {
+                    result.completeExceptionally(throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable);
+                    return null;
+                });
+
+        return result;
+    }
+
+    /**
+     * Process {@code markdown} like {@link #processAsync(String, Executor, Executor)}, as the latest
+     * request for {@code target}. This cancels whichever request for {@code target} was made before
+     */
+    public CompletableFuture<R> processAsync(String markdown, Executor lexParseExecutor, Executor compileExecutor, ProcessingTarget target) {
+        var result = this.processAsync(markdown, lexParseExecutor, compileExecutor);
+        target.supersede(result);
+
+        return result;
+    }
+
+    private R process(String markdown, MarkdownCompiler<R> compiler, ProcessingBudget budget, @Nullable ProcessingMetrics metrics) {
+        var root = this.parseTree(markdown, budget, metrics);
+
+        if (metrics != null) metrics.beginCompile();
+        root.visit(compiler, budget);
+        budget.flushOverflow(compiler);
+
+        var result = compiler.compile();
+        if (metrics != null) metrics.endCompile(budget);
+
+        return result;
+    }
+
+    private @Nullable ProcessingMetrics createMetrics() {
+        return this.listener != ProcessingListener.NONE ? new ProcessingMetrics(this.tables.lexer) : null;
+    }
+
+    /**
+     * Lex and parse {@code markdown} into a document which can be compiled
+     * any number of times, using any compiler supported by this processor's features.
+     * The limits for parsing and for compiling apply to each step separately
+     * <p>
+     * Since documents are immutable, they are shared through this
+     * processor's {@linkplain #cache() cache} if it has one
+     */
+    public Document parse(String markdown) {
+        return this.parseDocument(markdown, null, null);
+    }
+
+    private Document parseDocument(String markdown, @Nullable Future<?> cancellation, @Nullable ProcessingMetrics metrics) {
+        if (this.cache == null) return this.parse(markdown, new ProcessingBudget(this.limits, cancellation), metrics);
+
+        var cached = this.cache.get(markdown);
+        if (cached != null) return cached;
+
+        var budget = new ProcessingBudget(this.limits, cancellation);
+        var document = this.parse(markdown, budget, metrics);
+        if (!budget.timedOut()) this.cache.put(markdown, document, document.tree().estimatedSize());
+
+        return document;
+    }
+
+    private Document parse(String markdown, ProcessingBudget budget, @Nullable ProcessingMetrics metrics) {
+        return new Document(FlatTree.of(this.parseTree(markdown, budget, metrics)), this.features);
+    }
+
+    /**
+     * Compile {@code document} using a fresh compiler from this processor's compiler factory
+     */
+    public R compile(Document document) {
+        return this.compile(document, this.compilerFactory);
+    }
+
+    /**
+     * Compile {@code document}, which may have been parsed by any processor,
+     * using a fresh compiler from {@code compilerFactory}
+     *
+     * @throws IllegalStateException If any feature of the processor which parsed
+     *                               {@code document} does not support the compiler
+     */
+    public <R2> R2 compile(Document document, Supplier<MarkdownCompiler<R2>> compilerFactory) {
+        var compiler = compilerFactory.get();
+        checkCompatibility(document.features(), compiler);
+
+        return this.compile(document.tree(), compiler, null);
+    }
+
+    private <R2> R2 compile(FlatTree tree, MarkdownCompiler<R2> compiler, @Nullable ProcessingMetrics metrics) {
+        var budget = new ProcessingBudget(this.limits);
+
+        if (metrics != null) metrics.beginCompile();
+        tree.visit(compiler, budget);
+        budget.flushOverflow(compiler);
+
+        var result = compiler.compile();
+        if (metrics != null) metrics.endCompile(budget);
+
+        return result;
+    }
+
+    /**
+     * Encode {@code document} into a new buffer, from which a processor with
+     * the same feature-set can {@linkplain #decode(ByteBuffer) decode} it again
+     *
+     * @throws IllegalArgumentException If {@code document} contains a node
+     *                                  for which no feature registered a codec
+     */
+    public ByteBuffer encode(Document document) {
+        return this.tables.codec.encode(document.tree());
+    }
+
+    /**
+     * Decode a document {@linkplain #encode(Document) encoded} by a processor with the
+     * same feature-set, starting at the position of {@code buffer} - which may for instance
+     * be a memory-mapped file - and advancing it past the document. This skips lexing and
+     * parsing entirely, which makes it considerably faster than processing the source again
+     *
+     * @throws IllegalArgumentException If {@code buffer} does not contain an encoded document, or
+     *                                  the document was encoded by a processor with a different
+     *                                  feature-set. In this case, it should be parsed from its source
+     */
+    public Document decode(ByteBuffer buffer) {
+        return new Document(this.tables.codec.decode(buffer), this.features);
+    }
+
+    private Parser.Node parseTree(String markdown, ProcessingBudget budget, @Nullable ProcessingMetrics metrics) {
+        String unprocessed = null;
+        if (markdown.length() > this.limits.maxInputLength()) {
+            int cut = this.limits.maxInputLength();
+            if (cut > 0 && Character.isHighSurrogate(markdown.charAt(cut - 1))) cut--;
+
+            // the lexer strips its input, so whitespace at the
+            // cut must go with the literal part to be preserved
+            while (cut > 0 && Character.isWhitespace(markdown.charAt(cut - 1))) cut--;
+
+            unprocessed = markdown.substring(cut);
+            markdown = markdown.substring(0, cut);
+        }
+
+        var root = metrics == null
+                ? this.tables.parser.parse(this.tables.lexer.stream(markdown), budget)
+                : metrics.lexAndParse(this.tables.parser, markdown, budget);
+
+        if (unprocessed != null) root.addChild(new Parser.TextNode(unprocessed));
+
+        return metrics == null ? this.passes.apply(root) : metrics.applyPasses(this.passes, root);
+    }
+
+    static void checkCompatibility(List<MarkdownFeature> features, MarkdownCompiler<?> compiler) {
+        for (var feature : features) {
+            if (!feature.supportsCompiler(compiler)) {
+                throw new IllegalStateException("Feature '" + feature.name() + "' is incompatible with compiler '" + compiler.name() + "'");
+            }
+        }
+    }
+
+    static void checkCompatibility(List<MarkdownFeature> features, Class<?> compilerClass) {
+        for (var feature : features) {
+            if (!feature.supportsCompiler(compilerClass)) {
+                throw new IllegalStateException("Feature '" + feature.name() + "' is incompatible with compilers of type '" + compilerClass.getName() + "'");
+            }
+        }
+    }
+
+    /**
+     * Open an editing session on {@code markdown}. Edits applied to the
+     * session only re-process the affected parts of the document, which makes
+     * sessions suitable for live previews of large documents
+     * <p>
+     * Of this processor's {@linkplain #limits() limits}, sessions only apply the maximum nesting
+     * depth - they are meant for documents edited locally. A session compiles to the same result as this
+     * processor only as long as processing the session's text does not hit any of the other limits. This
+     * processor's {@linkplain #passes() passes} are applied to the entire document on every compile
+     */
+    public MarkdownSession<R> openSession(String markdown) {
+        return new MarkdownSession<>(this::createCompiler, this.tables.lexer, this.tables.parser, this.limits, this.passes, markdown);
     }
 
     // --- copy constructors ---
@@ -81,6 +455,9 @@ public class MarkdownProcessor<R> {
     /**
      * Create a copy of this processor with {@code features} added
      * to the copy's feature-set
+     *
+     * @throws IllegalStateException If this processor's compiler factory is a {@link CompilerFactory}
+     *                               whose compilers are not supported by any of {@code features}
      */
     public MarkdownProcessor<R> copyWith(MarkdownFeature... features) {
         var newFeatures = new ArrayList<>(this.features);
@@ -89,29 +466,69 @@ public class MarkdownProcessor<R> {
             newFeatures.add(feature);
         }
 
-        return new MarkdownProcessor<>(this.compilerFactory, newFeatures);
+        return new MarkdownProcessor<>(this.compilerFactory, newFeatures, FeatureTables.of(newFeatures), this.limits, this.passes, this.cacheSettings, this.listener);
     }
 
     /**
      * Create a copy of this processor with its compiler factory
      * replaced by {@code compilerFactory}
+     *
+     * @throws IllegalStateException If {@code compilerFactory} is a {@link CompilerFactory}
+     *                               whose compilers are not supported by this processor's features
      */
     public <R2> MarkdownProcessor<R2> copyWith(Supplier<MarkdownCompiler<R2>> compilerFactory) {
-        return new MarkdownProcessor<>(compilerFactory, this.features);
+        return new MarkdownProcessor<>(compilerFactory, this.features, this.tables, this.limits, this.passes, this.cacheSettings, this.listener);
+    }
+
+    /**
+     * Create a copy of this processor with its
+     * limits replaced by {@code limits}
+     */
+    public MarkdownProcessor<R> copyWith(ProcessingLimits limits) {
+        return new MarkdownProcessor<>(this.compilerFactory, this.features, this.tables, limits, this.passes, this.cacheSettings, this.listener);
+    }
+
+    /**
+     * Create a copy of this processor with the passes it
+     * applies to the AST replaced by {@code passes}
+     */
+    public MarkdownProcessor<R> copyWith(PassPipeline passes) {
+        return new MarkdownProcessor<>(this.compilerFactory, this.features, this.tables, this.limits, passes, this.cacheSettings, this.listener);
+    }
+
+    /**
+     * Create a copy of this processor which caches its results
+     * according to {@code cacheSettings}. Like all copies, it starts out
+     * with an empty cache of its own
+     */
+    public MarkdownProcessor<R> copyWith(ResultCache.Settings cacheSettings) {
+        return new MarkdownProcessor<>(this.compilerFactory, this.features, this.tables, this.limits, this.passes, cacheSettings, this.listener);
+    }
+
+    /**
+     * Create a copy of this processor which reports on every
+     * input it processes to {@code listener}
+     */
+    public MarkdownProcessor<R> copyWith(ProcessingListener listener) {
+        return new MarkdownProcessor<>(this.compilerFactory, this.features, this.tables, this.limits, this.passes, this.cacheSettings, listener);
     }
 
     // --- default factories ---
 
+    private static final CompilerFactory<Text> TEXT_COMPILER = CompilerFactory.of(TextCompiler.class, TextCompiler::new);
+
     /**
-     * Create a new Markdown-processor with support for basic text formatting, that is:
+     * Get the shared Markdown-processor with support for basic text formatting, that is:
      * <ul>
      *     <li>Bold & Italic Emphasis</li>
      *     <li>Discord-like underscore and strikethrough formatting</li>
      *     <li>Colors using <pre>{&lt;color name&gt;|#RRGGBB}content here{}</pre> syntax</li>
      * </ul>
+     * When processing input authored by players, consider applying
+     * {@link ProcessingLimits#UNTRUSTED} through {@link #copyWith(ProcessingLimits)}
      */
     public static MarkdownProcessor<Text> text() {
-        return new MarkdownProcessor<>(TextCompiler::new, new BasicFormattingFeature(false), new ColorFeature());
+        return canonical(TEXT_COMPILER, new BasicFormattingFeature(false), new ColorFeature());
     }
 
     /**
@@ -127,6 +544,6 @@ public class MarkdownProcessor<R> {
      * </ul>
      */
     public static MarkdownProcessor<Text> richText(int assumedOutputWidth) {
-        return new MarkdownProcessor<>(() -> new TextCompiler(assumedOutputWidth), new BasicFormattingFeature(), new ColorFeature(), new LinkFeature(), new ListFeature(), new BlockQuoteFeature());
+        return new MarkdownProcessor<>(CompilerFactory.of(TextCompiler.class, () -> new TextCompiler(assumedOutputWidth)), new BasicFormattingFeature(), new ColorFeature(), new LinkFeature(), new ListFeature(), new BlockQuoteFeature());
     }
 }
@@ -0,0 +1,434 @@
+package io.wispforest.lavendermd;
+
+import io.wispforest.lavendermd.Lexer.NewlineToken;
+import io.wispforest.lavendermd.Lexer.Token;
+import io.wispforest.lavendermd.compiler.MarkdownCompiler;
+import io.wispforest.lavendermd.util.ListNibbler;
+import io.wispforest.lavendermd.util.StringNibbler;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * An editing session over a single Markdown document, obtained through
+ * {@link MarkdownProcessor#openSession(String)}. Instead of re-processing the
+ * entire document, each edit only re-lexes the blocks (runs of tokens terminated
+ * by a boundary {@link NewlineToken}) whose lexing could have observed the edited
+ * range, and only re-parses the top-level nodes whose parsing could have observed
+ * any of the re-lexed tokens. Both steps resynchronize with the previous state
+ * as soon as they arrive at a boundary which existed before the edit
+ * <p>
+ * Blocks and top-level nodes are stored relative to each other, so an edit neither visits nor moves the
+ * ones after it, and finding those it affects takes logarithmic time. Apart from copying the document's
+ * text into the new revision the lexer reads, an edit thus costs time proportional to what it re-processes
+ * <p>
+ * Of the processor's {@link ProcessingLimits}, sessions only apply the maximum nesting depth - the
+ * maximum input length, node and output component counts and the time limit depend on the entire
+ * document, which would defeat re-processing only the edited parts of it. The result of {@link #compile()}
+ * is thus identical to processing the session's current {@link #text()} from scratch with the processor's
+ * limits replaced by {@code ProcessingLimits.NONE.withMaxNestingDepth(limits.maxNestingDepth())}, which
+ * matches processing with the processor itself as long as that does not hit any of the other limits
+ *
+ * @param <R> The result type of the compiler used by this session
+ */
+public class MarkdownSession<R> {
+
+    /**
+     * Tokens and nodes keep views into the source string they were produced
+     * from - if blocks lexed from too many distinct revisions of the document
+     * are alive at once, the session is rebuilt to let go of the old revisions
+     */
+    private static final int MAX_RETAINED_REVISIONS = 8;
+
+    private final Supplier<MarkdownCompiler<R>> compilerFactory;
+    private final Lexer lexer;
+    private final Parser parser;
+    private final ProcessingLimits limits;
+    private final PassPipeline passes;
+
+    // the document is stored as the stripped text the lexer operates on and the whitespace
+    // around it, and only joined into its full text once that is asked for - edits
+    // which keep the whitespace thus copy only the stripped text
+    private String leadingWhitespace, strippedText, trailingWhitespace;
+    private @Nullable String text;
+
+    // blocks are weighted by their amount of tokens, and groups
+    // are positioned in the tokens of all blocks combined
+    private final SpanList<Block> blocks = new SpanList<>();
+    private final SpanList<Group> groups = new SpanList<>();
+
+    // how many of the blocks were lexed from each revision, which is kept
+    // up to date on every edit instead of visiting all blocks to count them
+    private final Reference2IntOpenHashMap<String> blocksPerRevision = new Reference2IntOpenHashMap<>();
+
+    MarkdownSession(Supplier<MarkdownCompiler<R>> compilerFactory, Lexer lexer, Parser parser, ProcessingLimits limits, PassPipeline passes, String text) {
+        this.compilerFactory = compilerFactory;
+        this.lexer = lexer;
+        this.parser = parser;
+        this.passes = passes;
+
+        // see the class documentation for why only the nesting depth is limited
+        this.limits = ProcessingLimits.NONE.withMaxNestingDepth(limits.maxNestingDepth());
+
+        this.setText(text);
+        this.rebuild();
+    }
+
+    /**
+     * @return The current text of the document edited in this session
+     */
+    public String text() {
+        if (this.text == null) {
+            this.text = this.leadingWhitespace + this.strippedText + this.trailingWhitespace;
+        }
+
+        return this.text;
+    }
+
+    /**
+     * Replace the {@code removedLength} characters starting at {@code offset}
+     * in this session's document with {@code inserted}
+     */
+    public MarkdownSession<R> edit(int offset, int removedLength, String inserted) {
+        int strippedStart = this.leadingWhitespace.length(), strippedEnd = strippedStart + this.strippedText.length();
+        Objects.checkFromIndexSize(offset, removedLength, strippedEnd + this.trailingWhitespace.length());
+
+        if (offset > strippedStart && offset + removedLength < strippedEnd) {
+            // the edit keeps the first and last character of the stripped
+            // text, so the whitespace around it stays the same
+            int editStart = offset - strippedStart;
+
+            this.strippedText = new StringBuilder(this.strippedText.length() - removedLength + inserted.length())
+                    .append(this.strippedText, 0, editStart)
+                    .append(inserted)
+                    .append(this.strippedText, editStart + removedLength, this.strippedText.length())
+                    .toString();
+            this.text = null;
+
+            this.relex(editStart, editStart + removedLength, editStart + inserted.length());
+        } else {
+            var oldStripped = this.strippedText;
+            int oldLeadingWhitespace = strippedStart;
+
+            var text = this.text();
+            this.setText(text.substring(0, offset) + inserted + text.substring(offset + removedLength));
+
+            if (this.leadingWhitespace.length() != oldLeadingWhitespace || this.blocks.size() == 0) {
+                this.rebuild();
+                return this;
+            }
+
+            // translate the edit into the coordinates of the stripped text,
+            // which is what the lexer operates on
+            int editStart = Math.max(0, Math.min(offset - oldLeadingWhitespace, Math.min(oldStripped.length(), this.strippedText.length())));
+            int oldEditEnd = Math.max(editStart, Math.min(offset + removedLength - oldLeadingWhitespace, oldStripped.length()));
+
+            int unchangedSuffix = Math.min(oldStripped.length() - oldEditEnd, this.strippedText.length() - editStart);
+            oldEditEnd = oldStripped.length() - unchangedSuffix;
+            int newEditEnd = this.strippedText.length() - unchangedSuffix;
+
+            this.relex(editStart, oldEditEnd, newEditEnd);
+        }
+
+        if (this.blocksPerRevision.size() > MAX_RETAINED_REVISIONS) {
+            this.rebuild();
+        }
+
+        return this;
+    }
+
+    /**
+     * Replace this session's document with {@code text}, applying
+     * the difference as a single edit. This is useful for integrating with
+     * text inputs which only report their entire new content
+     */
+    public MarkdownSession<R> update(String text) {
+        var current = this.text();
+        int maxCommon = Math.min(current.length(), text.length());
+
+        int prefix = 0;
+        while (prefix < maxCommon && current.charAt(prefix) == text.charAt(prefix)) prefix++;
+
+        int suffix = 0;
+        while (suffix < maxCommon - prefix && current.charAt(current.length() - suffix - 1) == text.charAt(text.length() - suffix - 1)) suffix++;
+
+        if (prefix == current.length() && prefix == text.length()) return this;
+        return this.edit(prefix, current.length() - prefix - suffix, text.substring(prefix, text.length() - suffix));
+    }
+
+    /**
+     * Compile the current state of this session's document using a fresh compiler
+     * from the session's processor, after applying the processor's passes to it
+     */
+    public R compile() {
+        var compiler = this.compilerFactory.get();
+
+        var document = Parser.Node.empty();
+        this.groups.forEach(group -> {
+            for (var node : group.nodes) {
+                document.addChild(node);
+            }
+        });
+
+        // passes do not modify the nodes they are given, which keeps the session's nodes intact. They
+        // are applied to the entire document since they merge nodes across the boundaries of groups
+        this.passes.apply(document).visit(compiler);
+        return compiler.compile();
+    }
+
+    private void setText(String text) {
+        this.text = text;
+        this.strippedText = text.strip();
+
+        int leadingWhitespace = leadingWhitespace(text);
+        this.leadingWhitespace = text.substring(0, leadingWhitespace);
+        this.trailingWhitespace = text.substring(leadingWhitespace + this.strippedText.length());
+    }
+
+    // --- lexing ---
+
+    private void rebuild() {
+        this.blocks.clear();
+        this.blocksPerRevision.clear();
+        this.groups.clear();
+
+        var nibbler = new StringNibbler(this.strippedText, true);
+        while (nibbler.hasNext()) {
+            this.blocks.add(this.lexBlock(nibbler));
+        }
+
+        var tokenNibbler = new TrackingNibbler(this.blocks);
+        while (tokenNibbler.hasElements()) {
+            this.groups.add(this.parseGroup(tokenNibbler));
+        }
+    }
+
+    private void relex(int editStart, int oldEditEnd, int newEditEnd) {
+        int delta = newEditEnd - oldEditEnd;
+
+        // find all blocks which inspected any part of the edited range - every block inspects at
+        // least the character before it and all of its own, so the first block which inspected anything
+        // at or after the start of the range and the last one which inspected anything before its end
+        // both overlap it, and so does every block which overlaps it lie between them
+        int firstDamaged = this.blocks.firstReadingFrom(editStart);
+        if (firstDamaged == -1) {
+            this.rebuild();
+            return;
+        }
+
+        int lastDamaged = Math.max(firstDamaged, this.blocks.lastReadingBefore(oldEditEnd));
+
+        int resyncOffset = Math.max(newEditEnd, this.blocks.startOf(lastDamaged + 1) + delta);
+        int resyncBlock = this.blocks.size();
+
+        var newBlocks = new ArrayList<Block>();
+        int newTokens = 0;
+
+        var nibbler = new StringNibbler(this.strippedText, true);
+        nibbler.skip(this.blocks.startOf(firstDamaged));
+
+        while (nibbler.hasNext()) {
+            var block = this.lexBlock(nibbler);
+            newBlocks.add(block);
+            newTokens += block.tokens.size();
+
+            if (nibbler.cursor() < resyncOffset) continue;
+
+            int candidate = this.blocks.indexStartingAt(nibbler.cursor() - delta);
+            if (candidate > lastDamaged) {
+                resyncBlock = candidate;
+                break;
+            }
+        }
+
+        int replacedTokensStart = this.blocks.weightBefore(firstDamaged);
+        int replacedTokensEnd = this.blocks.weightBefore(resyncBlock);
+        int tokenDelta = newTokens - (replacedTokensEnd - replacedTokensStart);
+
+        // the blocks after the replaced ones are positioned relative
+        // to them, and thus move along without being visited
+        this.blocks.replace(firstDamaged, resyncBlock, newBlocks, this::forgetRevision);
+
+        this.reparse(replacedTokensStart, replacedTokensEnd, tokenDelta);
+    }
+
+    private Block lexBlock(StringNibbler nibbler) {
+        int start = nibbler.cursor();
+        var tokens = new ArrayList<Token>();
+
+        nibbler.resetReadWindow();
+        this.lexer.lexBlock(nibbler, tokens);
+        tokens.trimToSize();
+
+        this.blocksPerRevision.addTo(this.strippedText, 1);
+
+        // where a block starts depends on the end of the
+        // previous one, so treat its last character as read
+        return new Block(
+                this.strippedText, tokens,
+                start, nibbler.cursor(),
+                Math.min(nibbler.lowestRead(), start - 1), Math.max(nibbler.highestRead(), nibbler.cursor() - 1)
+        );
+    }
+
+    private void forgetRevision(Block block) {
+        if (this.blocksPerRevision.addTo(block.source, -1) == 1) this.blocksPerRevision.removeInt(block.source);
+    }
+
+    // --- parsing ---
+
+    private void reparse(int replacedTokensStart, int replacedTokensEnd, int tokenDelta) {
+        // find all groups which accessed any of the replaced tokens, which
+        // works just like finding the blocks which inspected the edited range
+        int firstInvalid = this.groups.firstReadingFrom(replacedTokensStart);
+        int lastInvalid = Math.max(firstInvalid, this.groups.lastReadingBefore(replacedTokensEnd));
+
+        if (firstInvalid == -1) {
+            this.groups.clear();
+            firstInvalid = lastInvalid = 0;
+        }
+
+        int resyncToken = Math.max(replacedTokensEnd + tokenDelta, lastInvalid < this.groups.size() ? this.groups.startOf(lastInvalid + 1) + tokenDelta : 0);
+        int resyncGroup = this.groups.size();
+
+        var newGroups = new ArrayList<Group>();
+
+        var nibbler = new TrackingNibbler(this.blocks);
+        nibbler.setPointer(firstInvalid < this.groups.size() ? this.groups.startOf(firstInvalid) : 0);
+
+        while (nibbler.hasElements()) {
+            newGroups.add(this.parseGroup(nibbler));
+
+            if (nibbler.pointer() < resyncToken) continue;
+
+            int candidate = this.groups.indexStartingAt(nibbler.pointer() - tokenDelta);
+            if (candidate > lastInvalid) {
+                resyncGroup = candidate;
+                break;
+            }
+        }
+
+        this.groups.replace(Math.min(firstInvalid, this.groups.size()), resyncGroup, newGroups, group -> {});
+    }
+
+    /**
+     * Parse top-level nodes until arriving at a block boundary
+     * which none of the parsed nodes looked beyond
+     */
+    private Group parseGroup(TrackingNibbler nibbler) {
+        int start = nibbler.pointer();
+        var nodes = new ArrayList<Parser.Node>();
+
+        var parser = this.parser.memoizingView(start, new ProcessingBudget(this.limits));
+
+        nibbler.resetAccessWindow();
+        while (true) {
+            nodes.add(parser.parseNode(nibbler));
+
+            int end = nibbler.pointer();
+            if (end >= this.blocks.weight()) break;
+
+            if (nibbler.tokenAt(end - 1) instanceof NewlineToken newline && newline.isBoundary() && nibbler.highestAccess < end) {
+                break;
+            }
+        }
+
+        return new Group(nodes, start, nibbler.pointer(), Math.min(nibbler.lowestAccess, start), Math.max(nibbler.highestAccess, nibbler.pointer() - 1));
+    }
+
+    private static int leadingWhitespace(String text) {
+        int whitespace = 0;
+        while (whitespace < text.length() && Character.isWhitespace(text.charAt(whitespace))) whitespace++;
+
+        return whitespace;
+    }
+
+    // --- bookkeeping ---
+
+    /**
+     * A range of the stripped text which lexes to a run of tokens ending
+     * in a boundary newline (or the end of input), along with the window
+     * of the text which was inspected while lexing it
+     */
+    private static final class Block extends SpanList.Span {
+
+        private final String source;
+        private final List<Token> tokens;
+
+        private Block(String source, List<Token> tokens, int start, int end, int lowestRead, int highestRead) {
+            super(start, end, lowestRead, highestRead, tokens.size());
+            this.source = source;
+            this.tokens = tokens;
+        }
+    }
+
+    /**
+     * A run of top-level nodes, along with the window
+     * of tokens which was accessed while parsing them
+     */
+    private static final class Group extends SpanList.Span {
+
+        private final List<Parser.Node> nodes;
+
+        private Group(List<Parser.Node> nodes, int tokenStart, int tokenEnd, int lowestAccess, int highestAccess) {
+            super(tokenStart, tokenEnd, lowestAccess, highestAccess, 0);
+            this.nodes = nodes;
+        }
+    }
+
+    /**
+     * Nibbles the tokens of all blocks in order,
+     * tracking which of them were accessed
+     */
+    private static final class TrackingNibbler extends ListNibbler<Token> {
+
+        private final SpanList<Block> blocks;
+        private int lowestAccess, highestAccess;
+
+        // tokens are mostly accessed in order, so the block of
+        // the previous access is checked before looking up another
+        private @Nullable Block block = null;
+        private int blockStart;
+
+        private TrackingNibbler(SpanList<Block> blocks) {
+            super(List.of());
+            this.blocks = blocks;
+        }
+
+        private void resetAccessWindow() {
+            this.lowestAccess = Integer.MAX_VALUE;
+            this.highestAccess = -1;
+        }
+
+        @Override
+        protected boolean isInRange(int index) {
+            if (index < this.lowestAccess) this.lowestAccess = index;
+            if (index > this.highestAccess) this.highestAccess = index;
+
+            return index >= 0 && index < this.blocks.weight();
+        }
+
+        @Override
+        protected Token elementAt(int index) {
+            return this.tokenAt(index);
+        }
+
+        /**
+         * Look up the token at {@code index} without tracking the access
+         */
+        private Token tokenAt(int index) {
+            if (this.block == null || index < this.blockStart || index >= this.blockStart + this.block.tokens.size()) {
+                int blockIndex = this.blocks.indexAtWeight(index);
+
+                this.block = this.blocks.get(blockIndex);
+                this.blockStart = this.blocks.weightBefore(blockIndex);
+            }
+
+            return this.block.tokens.get(index - this.blockStart);
+        }
+    }
+}
@@ -5,25 +5,54 @@ import io.wispforest.lavendermd.Lexer.TextToken;
 import io.wispforest.lavendermd.Lexer.Token;
 import io.wispforest.lavendermd.compiler.MarkdownCompiler;
 import io.wispforest.lavendermd.util.ListNibbler;
+import io.wispforest.lavendermd.util.StreamingListNibbler;
 import net.minecraft.text.Style;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.lang.reflect.Field;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
 import java.util.function.Predicate;
 import java.util.function.UnaryOperator;
 
 public class Parser implements MarkdownFeature.NodeRegistrar {
 
-    private final Map<BiFunction<Token, ListNibbler<Token>, ?>, ParseFunction<?>> parseFunctions = new HashMap<>();
+    // parse-functions registered for a specific token class, in order of priority -
+    // these are looked up by walking the class hierarchy of each token, which keeps
+    // the cost of dispatching a token independent of how many features are installed
+    private final Map<Class<?>, List<ClassParseFunction>> classParseFunctions;
+
+    // parse-functions with an arbitrary trigger, which are
+    // only considered if no class-based parse-function matched
+    private final List<TriggeredParseFunction> triggeredParseFunctions;
+
+    private final List<PairedDelimiter<?, ?>> pairedDelimiters;
+
+    // only present on the per-parse views of this parser which are handed to parse-functions,
+    // holds the node parsed at each token index along with the closing delimiter search results
+    private final @Nullable ParseMemo memo;
+    private final @Nullable ProcessingBudget budget;
+
+    private boolean frozen;
 
     public Parser() {
+        this.classParseFunctions = new HashMap<>();
+        this.triggeredParseFunctions = new ArrayList<>();
+        this.pairedDelimiters = new ArrayList<>();
+        this.memo = null;
+        this.budget = null;
+        this.frozen = false;
+
         this.registerNode((parser, text, tokens) -> {
-            var content = text.content();
+            var content = text.contentView();
             if (tokens.peek(-2) == null || tokens.peek(-2) instanceof NewlineToken) {
                 content = content.stripLeading();
             }
@@ -33,12 +62,81 @@ public class Parser implements MarkdownFeature.NodeRegistrar {
             }
 
             return new TextNode(content);
-        }, (token, tokens) -> token instanceof TextToken text ? text : null);
+        }, TextToken.class);
+    }
+
+    /**
+     * Create a view of {@code registrations} with its own memo, to be used
+     * for parsing a sequence of top-level nodes starting at token {@code start}
+     */
+    private Parser(Parser registrations, int start, ProcessingBudget budget) {
+        this.classParseFunctions = registrations.classParseFunctions;
+        this.triggeredParseFunctions = registrations.triggeredParseFunctions;
+        this.pairedDelimiters = registrations.pairedDelimiters;
+        this.memo = new ParseMemo(start);
+        this.budget = budget;
+
+        // views share the registrations of the parser they were created from
+        this.frozen = true;
+    }
+
+    /**
+     * @return A view of this parser which memoizes nodes across all top-level
+     * nodes parsed through it, starting at token {@code start}, and stays within {@code budget}
+     */
+    Parser memoizingView(int start, ProcessingBudget budget) {
+        return new Parser(this, start, budget);
+    }
+
+    /**
+     * Prevent any further nodes from being registered on this parser. Once frozen, a parser
+     * is immutable and can be shared between threads, which may all parse through it at once
+     */
+    public Parser freeze() {
+        this.frozen = true;
+        return this;
+    }
+
+    private void ensureNotFrozen() {
+        if (this.frozen) {
+            throw new IllegalStateException("Cannot register nodes on a frozen parser");
+        }
     }
 
     @Override
     public <T extends Token> void registerNode(ParseFunction<T> parser, BiFunction<Token, ListNibbler<Token>, @Nullable T> trigger) {
-        this.parseFunctions.put(trigger, parser);
+        this.ensureNotFrozen();
+        this.triggeredParseFunctions.add(0, new TriggeredParseFunction(parser, trigger));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends Token> void registerNode(ParseFunction<T> parser, Class<T> tokenClass, BiPredicate<T, ListNibbler<Token>> condition) {
+        this.ensureNotFrozen();
+        this.classParseFunctions.computeIfAbsent(tokenClass, $ -> new ArrayList<>())
+                .add(0, new ClassParseFunction(parser, null, (BiPredicate<Token, ListNibbler<Token>>) condition));
+    }
+
+    @Override
+    public <O extends Token, C extends Token> void registerPairedNode(PairedDelimiter<O, C> delimiter) {
+        this.ensureNotFrozen();
+
+        int id = this.pairedDelimiters.size();
+        this.pairedDelimiters.add(delimiter);
+
+        this.registerConstruct(delimiter.openerClass(), delimiter.canOpen(), (opener, start) -> new PairedFrame<>(start, id, delimiter, opener));
+    }
+
+    @Override
+    public <T extends Token> void registerContainerNode(Container<T> container) {
+        this.ensureNotFrozen();
+        this.registerConstruct(container.openerClass(), container.canOpen(), (opener, start) -> new ContainerFrame<>(start, container, opener));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends Token> void registerConstruct(Class<T> tokenClass, BiPredicate<T, ListNibbler<Token>> condition, FrameFactory<T> frames) {
+        this.classParseFunctions.computeIfAbsent(tokenClass, $ -> new ArrayList<>())
+                .add(0, new ClassParseFunction(null, frames, (BiPredicate<Token, ListNibbler<Token>>) condition));
     }
 
     /**
@@ -54,25 +152,163 @@ public class Parser implements MarkdownFeature.NodeRegistrar {
     }
 
     public Node parse(List<Token> tokens) {
-        var tokenNibbler = new ListNibbler<>(tokens);
+        return this.parse(tokens, ProcessingLimits.DEFAULT);
+    }
+
+    /**
+     * Parse {@code tokens}, emitting everything that cannot be
+     * parsed within {@code limits} as literal text
+     */
+    public Node parse(List<Token> tokens, ProcessingLimits limits) {
+        return this.parse(new ListNibbler<>(tokens), new ProcessingBudget(limits));
+    }
+
+    /**
+     * Parse the tokens produced by {@code tokens}, pulling them only as they are needed.
+     * Combined with {@link Lexer#stream(String)}, this interleaves lexing and parsing
+     * so that the token list is never fully resident
+     */
+    public Node parse(Iterator<Token> tokens) {
+        return this.parse(tokens, ProcessingLimits.DEFAULT);
+    }
+
+    /**
+     * Like {@link #parse(Iterator)}, emitting everything that
+     * cannot be parsed within {@code limits} as literal text
+     */
+    public Node parse(Iterator<Token> tokens, ProcessingLimits limits) {
+        return this.parse(tokens, new ProcessingBudget(limits));
+    }
+
+    Node parse(Iterator<Token> tokens, ProcessingBudget budget) {
+        return this.parse(new StreamingListNibbler<>(tokens), budget);
+    }
+
+    Node parse(ListNibbler<Token> tokenNibbler, ProcessingBudget budget) {
+        var parser = this.memoizingView(tokenNibbler.pointer(), budget);
 
         var node = Node.empty();
         while (tokenNibbler.hasElements()) {
-            node.addChild(parseNode(tokenNibbler));
+            // parse-functions never rewind past the start of the
+            // top-level node they are parsing, so everything before
+            // it can safely be let go of
+            tokenNibbler.discardConsumed();
+            parser.memo.discardBefore(tokenNibbler.pointer());
+
+            node.addChild(parser.parseNode(tokenNibbler));
         }
 
         return node;
     }
 
+    @NotNull Node parseNode(ListNibbler<Token> tokens) {
+        if (this.memo == null) {
+            return this.memoizingView(tokens.pointer(), new ProcessingBudget(ProcessingLimits.DEFAULT)).parseNode(tokens);
+        }
+
+        // constructs registered through registerPairedNode and registerContainerNode are
+        // parsed on this explicit stack instead of recursing, so that nesting them
+        // only costs heap memory instead of stack frames
+        var frames = new ArrayList<Frame>();
+        int nestingDepth = this.budget.nestingDepth;
+
+        try {
+            while (true) {
+                var node = this.beginNode(tokens, frames);
+
+                // hand finished nodes to the constructs waiting
+                // for them, until one of them requests another node
+                while (node != null) {
+                    if (frames.isEmpty()) return node;
+
+                    var frame = frames.get(frames.size() - 1);
+                    node = frame.step(this, tokens, node);
+
+                    if (node != null) {
+                        frames.remove(frames.size() - 1);
+                        this.budget.nestingDepth--;
+                        this.memo.putNode(frame.start, node, tokens.pointer());
+                    }
+                }
+            }
+        } finally {
+            this.budget.nestingDepth = nestingDepth;
+        }
+    }
+
+    /**
+     * Parse the node starting at the token pointer, unless it is a construct which
+     * is parsed on the explicit stack - in that case, its frame is pushed onto {@code frames}
+     *
+     * @return The parsed node, or {@code null} if a frame was pushed which
+     * requested the node at the token pointer as the first one it contains
+     */
+    private @Nullable Node beginNode(ListNibbler<Token> tokens, List<Frame> frames) {
+        int start = tokens.pointer();
+
+        var memoized = this.memo.node(start);
+        if (memoized != null) {
+            tokens.setPointer(this.memo.end(start));
+            return memoized;
+        }
+
+        Node node;
+        if (!this.budget.tryParseNode()) {
+            // once out of budget, everything left is literal text - this consumes
+            // all remaining tokens, which makes any construct still waiting
+            // for its closing delimiter fall back to literal text as well
+            var content = new StringBuilder();
+            for (var token = tokens.nibble(); token != null; token = tokens.nibble()) {
+                content.append(token.content());
+            }
+
+            node = new TextNode(content.toString());
+        } else if (this.budget.nestingDepth < this.budget.maxNestingDepth) {
+            // a pushed frame keeps its level of nesting until it is popped
+            this.budget.nestingDepth++;
+
+            node = this.dispatchNode(tokens, start, frames);
+            if (node == null) return null;
+
+            this.budget.nestingDepth--;
+        } else {
+            var token = tokens.nibble();
+            node = token != null ? new TextNode(token.content()) : Node.empty();
+        }
+
+        this.memo.putNode(start, node, tokens.pointer());
+        return node;
+    }
+
     @SuppressWarnings({"unchecked", "rawtypes"})
-    private @NotNull Node parseNode(ListNibbler<Token> tokens) {
+    private @Nullable Node dispatchNode(ListNibbler<Token> tokens, int start, List<Frame> frames) {
         var token = tokens.nibble();
 
-        for (var function : this.parseFunctions.entrySet()) {
-            var first = function.getKey().apply(token, tokens);
+        if (token != null) {
+            for (Class<?> tokenClass = token.getClass(); tokenClass != Object.class; tokenClass = tokenClass.getSuperclass()) {
+                var functions = this.classParseFunctions.get(tokenClass);
+                if (functions == null) continue;
+
+                for (var function : functions) {
+                    if (!function.condition.test(token, tokens)) continue;
+                    if (function.parser != null) return ((ParseFunction) function.parser).parse(this, token, tokens);
+
+                    var frame = ((FrameFactory) function.frames).open(token, start);
+                    frames.add(frame);
+
+                    var node = frame.step(this, tokens, null);
+                    if (node != null) frames.remove(frames.size() - 1);
+
+                    return node;
+                }
+            }
+        }
+
+        for (var function : this.triggeredParseFunctions) {
+            var first = function.trigger.apply(token, tokens);
             if (first == null) continue;
 
-            return ((ParseFunction) function.getValue()).parse(this, token, tokens);
+            return ((ParseFunction) function.parser).parse(this, token, tokens);
         }
 
         if (token != null) {
@@ -86,8 +322,16 @@ public class Parser implements MarkdownFeature.NodeRegistrar {
         return this.parseUntil(tokens, token -> token.isBoundary() || until.isInstance(token), token -> false);
     }
 
+    /**
+     * Parse nodes until the next token matched by {@code until}, skipping all tokens
+     * matched by {@code skip}. At least one node is always parsed
+     *
+     * @return The first node parsed, with all following ones appended to its children
+     */
     public Node parseUntil(ListNibbler<Token> tokens, Predicate<Token> until, Predicate<Token> skip) {
-        var node = this.parseNode(tokens);
+        var first = this.parseNode(tokens);
+
+        Node group = null;
         while (tokens.hasElements()) {
             var next = tokens.peek();
 
@@ -98,13 +342,411 @@ public class Parser implements MarkdownFeature.NodeRegistrar {
 
             if (until.test(next)) break;
 
-            node.addChild(this.parseNode(tokens));
+            group = appendSibling(group, first, this.parseNode(tokens));
         }
 
-        return node;
+        return group != null ? group : first;
+    }
+
+    /**
+     * Append {@code node} to the children of the first node of a run, which is how runs
+     * are grouped. As the first node may be memoized, and thus be shared with other
+     * parses, the first append moves its children to a copy which is appended to instead
+     *
+     * @param group The result of the previous append, or {@code null} if this is the first
+     * @return The node to pass as {@code group} to the next append
+     */
+    private static Node appendSibling(@Nullable Node group, Node first, Node node) {
+        if (group == null) {
+            group = first.withoutChildren();
+            for (var child : first.children) group.addChild(child);
+        }
+
+        return group.addChild(node);
+    }
+
+    /**
+     * A construct which is being parsed on the explicit stack of {@link #parseNode(ListNibbler)}.
+     * Instead of invoking the parser for the nodes it contains, it requests them one at a time
+     */
+    private abstract static class Frame {
+
+        // the index of the token this construct starts at
+        protected final int start;
+
+        protected Frame(int start) {
+            this.start = start;
+        }
+
+        /**
+         * Advance this construct, handing it {@code child} - the node
+         * it requested in the previous step, or {@code null} in the first step
+         *
+         * @return The finished node with the token pointer just past it, or {@code null}
+         * to request the node starting at where the token pointer was left
+         */
+        protected abstract @Nullable Node step(Parser parser, ListNibbler<Token> tokens, @Nullable Node child);
+    }
+
+    @FunctionalInterface
+    private interface FrameFactory<T extends Token> {
+        Frame open(T trigger, int start);
+    }
+
+    /**
+     * Resolves the closing delimiter for {@code opener} without speculatively parsing
+     * and then rewinding - the search for the closing delimiter jumps from node to node
+     * using the memo, and remembers where it ended up for every node it passed. Since the
+     * search ends at the same token no matter where in the chain of nodes it started, every
+     * node is parsed and every token is searched past at most once per delimiter
+     */
+    private static final class PairedFrame<O extends Token, C extends Token> extends Frame {
+
+        private final int id;
+        private final PairedDelimiter<O, C> delimiter;
+        private final O opener;
+
+        private int contentStart = -1, searchStart = -1;
+
+        private PairedFrame(int start, int id, PairedDelimiter<O, C> delimiter, O opener) {
+            super(start);
+            this.id = id;
+            this.delimiter = delimiter;
+            this.opener = opener;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected @Nullable Node step(Parser parser, ListNibbler<Token> tokens, @Nullable Node child) {
+            var memo = parser.memo;
+
+            if (child == null) {
+                tokens.skip(this.delimiter.openerLength() - 1);
+                this.contentStart = tokens.pointer();
+
+                // mirror parseUntil, which always parses the first node before checking for the delimiter
+                return null;
+            }
+
+            if (this.searchStart == -1) this.searchStart = tokens.pointer();
+
+            int stop = tokens.pointer();
+            while (true) {
+                int knownStop = memo.stop(this.id, stop);
+                if (knownStop != -1) {
+                    stop = knownStop;
+                    break;
+                }
+
+                tokens.setPointer(stop);
+                var token = tokens.peek();
+                if (token == null || token.isBoundary() || this.delimiter.closerClass().isInstance(token)) break;
+
+                return null;
+            }
+
+            // walk the chain again, this time only using memoized
+            // results, and remember the stop for everything on it
+            for (int node = this.searchStart; node < stop && memo.stop(this.id, node) == -1; node = memo.end(node)) {
+                memo.putStop(this.id, node, stop);
+            }
+
+            tokens.setPointer(stop);
+            if (this.delimiter.closerClass().isInstance(tokens.peek())) {
+                var closer = (C) tokens.peek();
+                if (this.delimiter.canClose().test(closer, tokens)) {
+                    Node content = null, group = null;
+                    for (int pointer = this.contentStart; pointer < stop; pointer = memo.end(pointer)) {
+                        var node = memo.node(pointer);
+                        if (content == null) {
+                            content = node;
+                        } else {
+                            group = appendSibling(group, content, node);
+                        }
+                    }
+
+                    tokens.setPointer(stop + this.delimiter.closerLength());
+                    return this.delimiter.factory().create(this.opener, closer, group != null ? group : content);
+                }
+            }
+
+            tokens.setPointer(this.contentStart);
+            return this.delimiter.unmatchedOpener(tokens);
+        }
+    }
+
+    /**
+     * Collects nodes like {@link #parseUntil(ListNibbler, Predicate, Predicate)}
+     */
+    private static final class ContainerFrame<T extends Token> extends Frame {
+
+        private final Container<T> container;
+        private final T opener;
+
+        private @Nullable Node content = null, group = null;
+
+        private ContainerFrame(int start, Container<T> container, T opener) {
+            super(start);
+            this.container = container;
+            this.opener = opener;
+        }
+
+        @Override
+        protected @Nullable Node step(Parser parser, ListNibbler<Token> tokens, @Nullable Node child) {
+            if (child == null) return null;
+
+            if (this.content == null) {
+                this.content = child;
+            } else {
+                this.group = appendSibling(this.group, this.content, child);
+            }
+
+            while (tokens.hasElements()) {
+                var next = tokens.peek();
+
+                if (this.container.skip().test(this.opener, next)) {
+                    tokens.nibble();
+                    continue;
+                }
+
+                if (this.container.until().test(this.opener, next)) break;
+                return null;
+            }
+
+            return this.container.factory().create(this.opener, this.group != null ? this.group : this.content);
+        }
+    }
+
+    /**
+     * A construct enclosed by an opening and a closing delimiter, like {@code **emphasis**}
+     * or {@code {red}colors{}}. The content following the opening delimiter extends up to the first
+     * token of type {@code closerClass} on the same level of nesting, unless a block boundary
+     * comes first - if that token is accepted by {@code canClose}, the construct is created
+     * using {@code factory}. Otherwise, the opening delimiter is emitted as plain text
+     *
+     * @param openerLength The amount of tokens which make up the opening delimiter,
+     *                     including the initial one of type {@code openerClass}
+     * @param canOpen      Invoked with the token pointer just past the initial
+     *                     token of the opening delimiter
+     * @param closerLength The amount of tokens which make up the closing delimiter
+     * @param canClose     Invoked with the token pointer on the initial
+     *                     token of the closing delimiter
+     */
+    public record PairedDelimiter<O extends Token, C extends Token>(
+            Class<O> openerClass, int openerLength, BiPredicate<O, ListNibbler<Token>> canOpen,
+            Class<C> closerClass, int closerLength, BiPredicate<C, ListNibbler<Token>> canClose,
+            PairedNodeFactory<O, C> factory
+    ) {
+
+        /**
+         * Shorthand for a pair of unconditional, single-token delimiters
+         */
+        public static <O extends Token, C extends Token> PairedDelimiter<O, C> of(Class<O> openerClass, Class<C> closerClass, PairedNodeFactory<O, C> factory) {
+            return new PairedDelimiter<>(openerClass, 1, (opener, tokens) -> true, closerClass, 1, (closer, tokens) -> true, factory);
+        }
+
+        /**
+         * Parse this construct by parsing its content up to the
+         * closing delimiter and rewinding if there is none. This is used
+         * by registrars which do not support paired delimiters natively
+         */
+        @SuppressWarnings("unchecked")
+        public Node parseSpeculatively(Parser parser, O opener, ListNibbler<Token> tokens) {
+            tokens.skip(this.openerLength - 1);
+
+            int pointer = tokens.pointer();
+            var content = parser.parseUntil(tokens, this.closerClass);
+
+            if (this.closerClass.isInstance(tokens.peek()) && this.canClose.test((C) tokens.peek(), tokens)) {
+                var closer = (C) tokens.peek();
+                tokens.skip(this.closerLength);
+
+                return this.factory.create(opener, closer, content);
+            } else {
+                tokens.setPointer(pointer);
+                return this.unmatchedOpener(tokens);
+            }
+        }
+
+        private Node unmatchedOpener(ListNibbler<Token> tokens) {
+            if (this.openerLength == 1) return new TextNode(tokens.peek(-1).content());
+
+            var content = new StringBuilder();
+            for (int i = -this.openerLength; i < 0; i++) {
+                content.append(tokens.peek(i).content());
+            }
+
+            return new TextNode(content.toString());
+        }
     }
 
-    public abstract static class Node {
+    @FunctionalInterface
+    public interface PairedNodeFactory<O extends Token, C extends Token> {
+        Node create(O opener, C closer, Node content);
+    }
+
+    /**
+     * A construct which contains all nodes following its opening token up to the first
+     * token accepted by {@code until}, like block quotes or list items. Tokens accepted by
+     * {@code skip} are left out of the content. The first node following the
+     * opening token is always part of the content
+     *
+     * @param canOpen Invoked with the token pointer just past the opening token
+     */
+    public record Container<T extends Token>(
+            Class<T> openerClass, BiPredicate<T, ListNibbler<Token>> canOpen,
+            BiPredicate<T, Token> until, BiPredicate<T, Token> skip,
+            ContainerNodeFactory<T> factory
+    ) {
+
+        /**
+         * Parse this construct by recursing into {@code parser}. This is used
+         * by registrars which do not support containers natively
+         */
+        public Node parseRecursively(Parser parser, T opener, ListNibbler<Token> tokens) {
+            return this.factory.create(opener, parser.parseUntil(tokens, token -> this.until.test(opener, token), token -> this.skip.test(opener, token)));
+        }
+    }
+
+    @FunctionalInterface
+    public interface ContainerNodeFactory<T extends Token> {
+        Node create(T opener, Node content);
+    }
+
+    // exactly one of parser and frames is present
+    private record ClassParseFunction(@Nullable ParseFunction<?> parser, @Nullable FrameFactory<?> frames, BiPredicate<Token, ListNibbler<Token>> condition) {}
+
+    private record TriggeredParseFunction(ParseFunction<?> parser, BiFunction<Token, ListNibbler<Token>, ?> trigger) {}
+
+    /**
+     * Node and delimiter search results by token index, starting at {@code base}. Since
+     * a top-level node may end in the middle of what an earlier one has looked at already
+     * (when that one turned out to be an unmatched delimiter), results are kept across
+     * top-level nodes and only discarded once the parser has moved past them
+     */
+    private static final class ParseMemo {
+
+        private int base, used = 0;
+
+        private Node[] nodes = new Node[16];
+        private int[] ends = new int[16];
+
+        // per paired delimiter, the stop of the closing delimiter
+        // search at each index, offset by one so that zero means unknown
+        private int[][] stops = new int[0][];
+
+        private ParseMemo(int base) {
+            this.base = base;
+        }
+
+        private void discardBefore(int index) {
+            int discard = index - this.base;
+
+            // only compact once at least half of the used range is
+            // discardable, which keeps the cost amortized constant
+            if (discard <= 0 || discard < this.used / 2) return;
+
+            int retained = Math.max(0, this.used - discard);
+
+            System.arraycopy(this.nodes, Math.min(discard, this.used), this.nodes, 0, retained);
+            System.arraycopy(this.ends, Math.min(discard, this.used), this.ends, 0, retained);
+            Arrays.fill(this.nodes, retained, this.used, null);
+
+            for (var stops : this.stops) {
+                if (stops == null) continue;
+
+                int stopsUsed = Math.min(this.used, stops.length);
+                int stopsRetained = Math.max(0, stopsUsed - discard);
+
+                System.arraycopy(stops, Math.min(discard, stopsUsed), stops, 0, stopsRetained);
+                Arrays.fill(stops, stopsRetained, stopsUsed, 0);
+            }
+
+            this.base = index;
+            this.used = retained;
+        }
+
+        private @Nullable Node node(int index) {
+            index -= this.base;
+            return index >= 0 && index < this.nodes.length ? this.nodes[index] : null;
+        }
+
+        private int end(int index) {
+            return this.ends[index - this.base];
+        }
+
+        private void putNode(int index, Node node, int end) {
+            index -= this.base;
+            if (index < 0) return;
+
+            if (index >= this.nodes.length) {
+                int length = Math.max(index + 1, this.nodes.length * 2);
+                this.nodes = Arrays.copyOf(this.nodes, length);
+                this.ends = Arrays.copyOf(this.ends, length);
+            }
+
+            this.nodes[index] = node;
+            this.ends[index] = end;
+            this.used = Math.max(this.used, index + 1);
+        }
+
+        private int stop(int id, int index) {
+            index -= this.base;
+            if (id >= this.stops.length || this.stops[id] == null || index < 0 || index >= this.stops[id].length) return -1;
+
+            return this.stops[id][index] - 1;
+        }
+
+        private void putStop(int id, int index, int stop) {
+            index -= this.base;
+            if (index < 0) return;
+
+            if (id >= this.stops.length) this.stops = Arrays.copyOf(this.stops, id + 1);
+            if (this.stops[id] == null) this.stops[id] = new int[Math.max(16, index + 1)];
+            if (index >= this.stops[id].length) this.stops[id] = Arrays.copyOf(this.stops[id], Math.max(index + 1, this.stops[id].length * 2));
+
+            this.stops[id][index] = stop + 1;
+            this.used = Math.max(this.used, index + 1);
+        }
+    }
+
+    /**
+     * A node of the AST produced by the parser. Nodes must not change once their parse-function
+     * returned them - the parser may hand out the same node more than once, and {@link Document}s
+     * share their nodes between compilations, possibly running on multiple threads at once
+     */
+    public abstract static class Node implements Cloneable {
+
+        // children is final, so copies made through clone() - which share the
+        // list of the original - are given a list of their own through reflection
+        private static final Field CHILDREN;
+
+        static {
+            try {
+                CHILDREN = Node.class.getDeclaredField("children");
+                CHILDREN.setAccessible(true);
+            } catch (NoSuchFieldException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        // whether a class of node overrides visit(MarkdownCompiler),
+        // and must thus be visited through it along with its subtree
+        private static final ClassValue<Boolean> CUSTOM_VISIT = new ClassValue<>() {
+            @Override
+            protected Boolean computeValue(Class<?> type) {
+                for (var current = type; current != Node.class; current = current.getSuperclass()) {
+                    try {
+                        current.getDeclaredMethod("visit", MarkdownCompiler.class);
+                        return true;
+                    } catch (NoSuchMethodException e) {
+                        // not declared on this class
+                    }
+                }
+
+                return false;
+            }
+        };
 
         protected final List<Node> children = new ArrayList<>();
 
@@ -113,41 +755,143 @@ public class Parser implements MarkdownFeature.NodeRegistrar {
             return this;
         }
 
+        /**
+         * @return A copy of this node which visits the same way, but without any children. This is
+         * what {@link FlatTree} retains of each node, and what {@linkplain PassPipeline.Pass passes}
+         * rebuild the nodes they change from - the default implementation creates a shallow copy,
+         * which nodes that keep per-instance mutable state must override
+         */
+        public Node withoutChildren() {
+            try {
+                var copy = (Node) super.clone();
+                CHILDREN.set(copy, new ArrayList<>());
+
+                return copy;
+            } catch (CloneNotSupportedException | IllegalAccessException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        /**
+         * Visit this node and all of its descendants in order, invoking {@link #visitStart(MarkdownCompiler)}
+         * before and {@link #visitEnd(MarkdownCompiler)} after the children of each node. The traversal
+         * keeps its own stack, so that deeply nested documents do not overflow the stack of the calling thread
+         * <p>
+         * Nodes may override this to visit themselves and their subtree differently. Every traversal,
+         * including those of processors and {@link FlatTree}s, then visits such a node through
+         * its override - passes leave its subtree untouched, and processing budgets count
+         * it as a single node
+         */
         public void visit(MarkdownCompiler<?> compiler) {
-            this.visitStart(compiler);
-            for (var child : this.children) {
-                child.visit(compiler);
+            this.visit(compiler, null);
+        }
+
+        /**
+         * Visit this node like {@link #visit(MarkdownCompiler)}, but stop emitting nodes
+         * once {@code budget} runs out - from then on, only the text of the remaining
+         * nodes is collected and emitted as literal text before the next node which
+         * was emitted earlier ends. The caller must flush {@code budget} afterwards
+         */
+        final void visit(MarkdownCompiler<?> compiler, @Nullable ProcessingBudget budget) {
+            var stack = new ArrayDeque<VisitFrame>();
+            stack.push(new VisitFrame(this, this.startVisit(compiler, budget)));
+
+            while (!stack.isEmpty()) {
+                var frame = stack.peek();
+
+                if (frame.children.hasNext()) {
+                    var child = frame.children.next();
+
+                    if (hasCustomVisit(child)) {
+                        if (budget == null || budget.tryEmitNode()) {
+                            child.visit(compiler);
+                        } else {
+                            // only collect the text of the subtree
+                            stack.push(new VisitFrame(child, false));
+                        }
+
+                        continue;
+                    }
+
+                    stack.push(new VisitFrame(child, child.startVisit(compiler, budget)));
+                } else {
+                    stack.pop();
+                    if (!frame.emitted) continue;
+
+                    if (budget != null) budget.flushOverflow(compiler);
+                    frame.node.visitEnd(compiler);
+                }
+            }
+        }
+
+        private boolean startVisit(MarkdownCompiler<?> compiler, @Nullable ProcessingBudget budget) {
+            if (budget == null || budget.tryEmitNode()) {
+                this.visitStart(compiler);
+                return true;
             }
-            this.visitEnd(compiler);
+
+            if (this instanceof TextNode text) budget.overflow(text.content.toString());
+            return false;
+        }
+
+        /**
+         * @return Whether {@code node} overrides {@link #visit(MarkdownCompiler)}
+         */
+        static boolean hasCustomVisit(Node node) {
+            return CUSTOM_VISIT.get(node.getClass());
         }
 
         protected abstract void visitStart(MarkdownCompiler<?> compiler);
 
         protected abstract void visitEnd(MarkdownCompiler<?> compiler);
 
+        /**
+         * @return A new node which only groups the children added to it,
+         * without emitting anything into the compiler itself
+         */
         public static Node empty() {
-            return new Node() {
-                @Override
-                protected void visitStart(MarkdownCompiler<?> compiler) {
-                }
+            return new ContainerNode();
+        }
+    }
 
-                @Override
-                protected void visitEnd(MarkdownCompiler<?> compiler) {
-                }
-            };
+    static final class ContainerNode extends Node {
+        @Override
+        protected void visitStart(MarkdownCompiler<?> compiler) {
+        }
+
+        @Override
+        protected void visitEnd(MarkdownCompiler<?> compiler) {
+        }
+    }
+
+    private record VisitFrame(Node node, Iterator<Node> children, boolean emitted) {
+        private VisitFrame(Node node, boolean emitted) {
+            this(node, node.children.iterator(), emitted);
         }
     }
 
     public static final class TextNode extends Node {
-        private final String content;
+        private final CharSequence content;
 
         public TextNode(String content) {
+            this((CharSequence) content);
+        }
+
+        /**
+         * Create a text node over {@code content}, which may be a view of the
+         * source - it is only copied out once the node is visited
+         */
+        public TextNode(CharSequence content) {
             this.content = content;
         }
 
+        public String content() {
+            return this.content.toString();
+        }
+
         @Override
         public void visitStart(MarkdownCompiler<?> compiler) {
-            compiler.visitText(this.content);
+            compiler.visitText(this.content.toString());
         }
 
         @Override
@@ -177,4 +921,41 @@ public class Parser implements MarkdownFeature.NodeRegistrar {
         }
     }
 
+    /**
+     * A formatting node which applies the styles of a chain of directly nested
+     * formatting nodes at once, created by {@link PassPipeline#FUSE_FORMATTING}
+     */
+    static final class FusedFormattingNode extends FormattingNode {
+
+        // outermost first, each without children
+        final FormattingNode[] parts;
+
+        FusedFormattingNode(FormattingNode[] parts) {
+            super(UnaryOperator.identity());
+            this.parts = parts;
+        }
+
+        static FusedFormattingNode of(FormattingNode outer, FormattingNode inner) {
+            var parts = new ArrayList<FormattingNode>();
+            for (var node : List.of(outer, inner)) {
+                if (node instanceof FusedFormattingNode fused) {
+                    parts.addAll(Arrays.asList(fused.parts));
+                } else {
+                    parts.add((FormattingNode) node.withoutChildren());
+                }
+            }
+
+            return new FusedFormattingNode(parts.toArray(FormattingNode[]::new));
+        }
+
+        @Override
+        protected Style applyStyle(Style style) {
+            for (var part : this.parts) {
+                style = part.applyStyle(style);
+            }
+
+            return style;
+        }
+    }
+
 }
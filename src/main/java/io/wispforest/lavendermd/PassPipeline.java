@@ -0,0 +1,356 @@
+package io.wispforest.lavendermd;
+
+import com.google.common.collect.ImmutableList;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * A sequence of {@link Pass}es which a {@link MarkdownProcessor} applies to the AST produced
+ * by its {@link Parser} before compiling it. The built-in passes remove the redundancy the parser
+ * leaves behind - runs of adjacent text nodes where the lexer split text at a trigger which did not
+ * produce a token, empty groups from {@link Parser.Node#empty()} and chains of nested formatting
+ * nodes which each push a style - so that compilers receive fewer calls and produce fewer components
+ */
+public final class PassPipeline {
+
+    /**
+     * Merges adjacent text nodes. Compilers are assumed to handle consecutive text the same
+     * whether it is visited at once or in pieces, unless it contains a line break - text
+     * nodes which contain one are therefore never merged, since line breaks are
+     * where compilers like {@link io.wispforest.lavendermd.compiler.TextCompiler}
+     * insert the markers of block quotes and lists
+     */
+    public static final Pass MERGE_TEXT = Pass.ofChildren("merge_text", PassPipeline::mergeText);
+
+    /**
+     * Replaces every container created by {@link Parser.Node#empty()}, apart from the root of
+     * the tree, by its children. Empty containers are thereby removed entirely, and the children
+     * of others become siblings of the nodes around them, which other passes can then merge with.
+     * The same goes for the children of text nodes - which the parser appends the nodes following
+     * them to - as text nodes do not affect how their children are visited either
+     */
+    public static final Pass INLINE_CONTAINERS = Pass.ofChildren("inline_containers", PassPipeline::inlineContainers);
+
+    /**
+     * Fuses every formatting node whose only child is another formatting node into
+     * a single node which applies both of their styles at once, which pushes a single
+     * style in place of a whole chain of them
+     */
+    public static final Pass FUSE_FORMATTING = Pass.ofChildren("fuse_formatting", PassPipeline::fuseFormatting);
+
+    /**
+     * A pipeline which leaves the AST as the parser produced it
+     */
+    public static final PassPipeline NONE = new PassPipeline(List.of(), null);
+
+    /**
+     * The pipeline processors use unless configured otherwise, which applies all built-in passes.
+     * Containers are inlined first so that the text they contained can be merged with its new siblings
+     */
+    public static final PassPipeline DEFAULT = new PassPipeline(List.of(INLINE_CONTAINERS, FUSE_FORMATTING, MERGE_TEXT), null);
+
+    private static final ClassValue<Boolean> FUSIBLE_FORMATTING = new ClassValue<>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            // formatting nodes which do more than push their style cannot be fused
+            for (var current = type; current != Parser.FormattingNode.class; current = current.getSuperclass()) {
+                for (var method : current.getDeclaredMethods()) {
+                    if (method.getName().equals("visitStart") || method.getName().equals("visitEnd") || method.getName().equals("visit")) return false;
+                }
+            }
+
+            return true;
+        }
+    };
+
+    private final List<Pass> passes;
+    private final @Nullable Consumer<PassReport> reportListener;
+
+    // consecutive passes which only rewrite children are applied in a single traversal,
+    // unless every pass must be applied on its own to report its effect separately
+    private final List<Pass> combinedPasses;
+
+    private PassPipeline(List<Pass> passes, @Nullable Consumer<PassReport> reportListener) {
+        this.passes = ImmutableList.copyOf(passes);
+        this.reportListener = reportListener;
+        this.combinedPasses = reportListener == null ? combineChildrenPasses(this.passes) : this.passes;
+    }
+
+    private static List<Pass> combineChildrenPasses(List<Pass> passes) {
+        var combined = new ArrayList<Pass>();
+        for (var pass : passes) {
+            if (pass instanceof ChildrenPass next && !combined.isEmpty() && combined.get(combined.size() - 1) instanceof ChildrenPass previous) {
+                combined.set(combined.size() - 1, new ChildrenPass(previous.name + "+" + next.name, children -> next.rewriter.apply(previous.rewriter.apply(children))));
+            } else {
+                combined.add(pass);
+            }
+        }
+
+        return combined;
+    }
+
+    public static PassPipeline of(Pass... passes) {
+        return new PassPipeline(List.of(passes), null);
+    }
+
+    public List<Pass> passes() {
+        return this.passes;
+    }
+
+    /**
+     * Create a copy of this pipeline with {@code pass} appended
+     */
+    public PassPipeline then(Pass pass) {
+        var passes = new ArrayList<>(this.passes);
+        passes.add(pass);
+
+        return new PassPipeline(passes, this.reportListener);
+    }
+
+    /**
+     * Create a copy of this pipeline which reports the effect of every pass
+     * it applies to {@code listener}. Counting the nodes of the tree for this
+     * purpose is not free, so pipelines without a listener do not do it
+     */
+    public PassPipeline reportingTo(Consumer<PassReport> listener) {
+        return new PassPipeline(this.passes, listener);
+    }
+
+    /**
+     * Apply all passes of this pipeline, in order, to the tree rooted at {@code root}
+     *
+     * @return The root of the transformed tree
+     */
+    public Parser.Node apply(Parser.Node root) {
+        for (var pass : this.combinedPasses) {
+            if (this.reportListener == null) {
+                root = pass.apply(root);
+            } else {
+                int nodesBefore = countNodes(root);
+                root = pass.apply(root);
+
+                this.reportListener.accept(new PassReport(pass, nodesBefore, countNodes(root)));
+            }
+        }
+
+        return root;
+    }
+
+    private static int countNodes(Parser.Node root) {
+        int count = 0;
+
+        var stack = new ArrayDeque<Parser.Node>();
+        stack.push(root);
+
+        while (!stack.isEmpty()) {
+            var node = stack.pop();
+            count++;
+
+            for (var child : node.children) {
+                stack.push(child);
+            }
+        }
+
+        return count;
+    }
+
+    // --- built-in passes ---
+
+    private static List<Parser.Node> mergeText(List<Parser.Node> children) {
+        List<Parser.Node> result = null;
+
+        // a run of mergeable text nodes, all of which but the last are childless
+        int runStart = 0, runLength = 0;
+
+        for (int i = 0; i <= children.size(); i++) {
+            var child = i < children.size() ? children.get(i) : null;
+            boolean mergeable = child instanceof Parser.TextNode text && text.content().indexOf('\n') == -1;
+
+            if (mergeable) {
+                if (runLength++ == 0) runStart = i;
+                if (child.children.isEmpty() && i + 1 < children.size()) continue;
+            }
+
+            if (runLength > 1) {
+                if (result == null) result = new ArrayList<>(children.subList(0, runStart));
+
+                var content = new StringBuilder();
+                for (int j = runStart; j < runStart + runLength; j++) {
+                    content.append(((Parser.TextNode) children.get(j)).content());
+                }
+
+                // the last node of the run may have children, which the merged node takes over
+                var merged = new Parser.TextNode(content.toString());
+                for (var grandchild : children.get(runStart + runLength - 1).children) merged.addChild(grandchild);
+
+                result.add(merged);
+            } else if (runLength == 1 && result != null) {
+                result.add(children.get(runStart));
+            }
+
+            if (!mergeable && child != null && result != null) result.add(child);
+            runLength = 0;
+        }
+
+        return result != null ? result : children;
+    }
+
+    private static List<Parser.Node> inlineContainers(List<Parser.Node> children) {
+        List<Parser.Node> result = null;
+
+        for (int i = 0; i < children.size(); i++) {
+            var child = children.get(i);
+
+            if (child instanceof Parser.ContainerNode) {
+                if (result == null) result = new ArrayList<>(children.subList(0, i));
+                result.addAll(child.children);
+            } else if (child instanceof Parser.TextNode && !child.children.isEmpty()) {
+                if (result == null) result = new ArrayList<>(children.subList(0, i));
+                result.add(child.withoutChildren());
+                result.addAll(child.children);
+            } else if (result != null) {
+                result.add(child);
+            }
+        }
+
+        return result != null ? result : children;
+    }
+
+    private static List<Parser.Node> fuseFormatting(List<Parser.Node> children) {
+        List<Parser.Node> result = null;
+
+        for (int i = 0; i < children.size(); i++) {
+            var child = children.get(i);
+
+            if (child instanceof Parser.FormattingNode outer && outer.children.size() == 1
+                    && outer.children.get(0) instanceof Parser.FormattingNode inner
+                    && FUSIBLE_FORMATTING.get(outer.getClass()) && FUSIBLE_FORMATTING.get(inner.getClass())) {
+                if (result == null) result = new ArrayList<>(children);
+
+                var fused = Parser.FusedFormattingNode.of(outer, inner);
+                for (var grandchild : inner.children) fused.addChild(grandchild);
+
+                result.set(i, fused);
+            }
+        }
+
+        return result != null ? result : children;
+    }
+
+    /**
+     * A transformation of the AST, which must produce a tree that compiles to the same
+     * result as the one it is given. Passes must not modify the nodes of the tree they
+     * are given - the parser may hand out the same node more than once, and editing
+     * sessions keep nodes around between edits. Instead, passes create new nodes in place of
+     * those they change, for instance through {@link Parser.Node#withoutChildren()}
+     */
+    public interface Pass {
+
+        /**
+         * @return A name for this pass, to be used in reports and logging messages
+         */
+        String name();
+
+        /**
+         * Transform the tree rooted at {@code root}
+         *
+         * @return The root of the transformed tree, which is
+         * {@code root} itself if the pass changed nothing
+         */
+        Parser.Node apply(Parser.Node root);
+
+        /**
+         * Create a pass which rewrites the children of every node in the tree through {@code rewriter}.
+         * The tree is rewritten bottom-up, so the children passed to {@code rewriter} have been rewritten
+         * themselves already. {@code rewriter} returns its argument if it does not change anything,
+         * and nodes with unchanged children are kept instead of being copied
+         */
+        static Pass ofChildren(String name, UnaryOperator<List<Parser.Node>> rewriter) {
+            return new ChildrenPass(name, rewriter);
+        }
+    }
+
+    private record ChildrenPass(String name, UnaryOperator<List<Parser.Node>> rewriter) implements Pass {
+        @Override
+        public Parser.Node apply(Parser.Node root) {
+            return rewriteChildren(root, this.rewriter);
+        }
+    }
+
+    private static Parser.Node rewriteChildren(Parser.Node root, UnaryOperator<List<Parser.Node>> rewriter) {
+        // an explicit stack keeps deeply nested trees from overflowing the stack of the calling thread
+        var stack = new ArrayDeque<RewriteFrame>();
+        stack.push(new RewriteFrame(root));
+
+        while (true) {
+            var frame = stack.peek();
+
+            if (frame.nextChild < frame.node.children.size()) {
+                var child = frame.node.children.get(frame.nextChild++);
+
+                // nodes with their own way of visiting their subtree are kept as they are
+                if (child.children.isEmpty() || Parser.Node.hasCustomVisit(child)) {
+                    frame.rewrittenChildren.add(child);
+                } else {
+                    stack.push(new RewriteFrame(child));
+                }
+
+                continue;
+            }
+
+            stack.pop();
+
+            var children = rewriter.apply(frame.rewrittenChildren);
+            var rewritten = frame.node;
+
+            if (!sameNodes(children, frame.node.children)) {
+                rewritten = frame.node.withoutChildren();
+                for (var child : children) rewritten.addChild(child);
+            }
+
+            if (stack.isEmpty()) return rewritten;
+            stack.peek().rewrittenChildren.add(rewritten);
+        }
+    }
+
+    private static boolean sameNodes(List<Parser.Node> a, List<Parser.Node> b) {
+        if (a.size() != b.size()) return false;
+
+        for (int i = 0; i < a.size(); i++) {
+            if (a.get(i) != b.get(i)) return false;
+        }
+
+        return true;
+    }
+
+    private static final class RewriteFrame {
+        private final Parser.Node node;
+        private final List<Parser.Node> rewrittenChildren;
+        private int nextChild = 0;
+
+        private RewriteFrame(Parser.Node node) {
+            this.node = node;
+            this.rewrittenChildren = new ArrayList<>(node.children.size());
+        }
+    }
+
+    /**
+     * The effect of a single pass on a single tree
+     *
+     * @param nodesBefore The amount of nodes in the tree before the pass was applied
+     * @param nodesAfter  The amount of nodes in the tree after the pass was applied
+     */
+    public record PassReport(Pass pass, int nodesBefore, int nodesAfter) {
+        /**
+         * @return The amount of nodes the pass removed from the tree
+         */
+        public int reduction() {
+            return this.nodesBefore - this.nodesAfter;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package io.wispforest.lavendermd;
+
+import io.wispforest.lavendermd.compiler.MarkdownCompiler;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.concurrent.Future;
+
+/**
+ * The resources remaining to a single run of a {@link MarkdownProcessor}
+ * under some {@link ProcessingLimits}, shared between parsing and compiling
+ */
+final class ProcessingBudget {
+
+    // reading the clock is comparatively expensive, so the
+    // deadline and cancellation are only checked every so often
+    private static final int DEADLINE_CHECK_INTERVAL = 64;
+
+    // time limits this long are effectively unbounded, and
+    // would overflow the clock when converted to a deadline
+    private static final Duration MAX_TIME_LIMIT = Duration.ofNanos(Long.MAX_VALUE / 2);
+
+    final int maxNestingDepth;
+    int nestingDepth = 0;
+
+    private final boolean hasDeadline;
+    private final long deadline;
+    private int deadlineCountdown = DEADLINE_CHECK_INTERVAL;
+    private boolean deadlinePassed = false;
+
+    // a run whose result is no longer wanted stops as if it had run out of time
+    private final @Nullable Future<?> cancellation;
+
+    private int remainingNodes;
+    private boolean nodesExhausted = false;
+    private int parsedNodes = 0;
+
+    private int remainingOutput;
+    private int emittedNodes = 0;
+    private @Nullable StringBuilder overflow = null;
+
+    ProcessingBudget(ProcessingLimits limits) {
+        this(limits, null);
+    }
+
+    /**
+     * @param cancellation A future which completes once the result of this run
+     *                     is no longer needed, after which the budget is exhausted
+     */
+    ProcessingBudget(ProcessingLimits limits, @Nullable Future<?> cancellation) {
+        this.cancellation = cancellation;
+
+        this.maxNestingDepth = limits.maxNestingDepth();
+        this.remainingNodes = limits.maxNodes();
+        this.remainingOutput = limits.maxOutputComponents();
+
+        this.hasDeadline = limits.timeLimit() != null && limits.timeLimit().compareTo(MAX_TIME_LIMIT) < 0;
+        this.deadline = this.hasDeadline ? System.nanoTime() + limits.timeLimit().toNanos() : 0;
+    }
+
+    /**
+     * Claim a node from this budget for parsing
+     *
+     * @return {@code false} if the node budget or the time limit is
+     * exhausted, in which case the node must not be parsed
+     */
+    boolean tryParseNode() {
+        if (this.nodesExhausted) return false;
+
+        if (--this.remainingNodes < 0 || this.deadlinePassed()) {
+            this.nodesExhausted = true;
+            return false;
+        }
+
+        this.parsedNodes++;
+        return true;
+    }
+
+    /**
+     * Claim an output component from this budget for emitting a node into the compiler
+     *
+     * @return {@code false} if the output budget or the time limit is exhausted, in
+     * which case the node must not be emitted and only its text should be passed
+     * to {@link #overflow(String)}
+     */
+    boolean tryEmitNode() {
+        if (this.overflow != null) return false;
+
+        if (--this.remainingOutput < 0 || this.deadlinePassed()) {
+            this.overflow = new StringBuilder();
+            return false;
+        }
+
+        this.emittedNodes++;
+        return true;
+    }
+
+    /**
+     * Queue {@code text} to be emitted as literal text on
+     * the next call to {@link #flushOverflow(MarkdownCompiler)}
+     */
+    void overflow(String text) {
+        this.overflow.append(text);
+    }
+
+    /**
+     * Emit all text queued through {@link #overflow(String)}
+     * into {@code compiler} as a single piece of literal text
+     */
+    void flushOverflow(MarkdownCompiler<?> compiler) {
+        if (this.overflow == null || this.overflow.isEmpty()) return;
+
+        compiler.visitText(this.overflow.toString());
+        this.overflow.setLength(0);
+    }
+
+    /**
+     * @return The amount of nodes which were claimed for parsing
+     */
+    int parsedNodes() {
+        return this.parsedNodes;
+    }
+
+    /**
+     * @return The amount of nodes which were emitted into the compiler
+     */
+    int emittedNodes() {
+        return this.emittedNodes;
+    }
+
+    /**
+     * @return {@code true} if the time limit was found to be exceeded or the run was cancelled at some
+     * point, in which case the result depends on how fast processing happened to run and must not be reused
+     */
+    boolean timedOut() {
+        return this.deadlinePassed;
+    }
+
+    private boolean deadlinePassed() {
+        if (this.deadlinePassed) return true;
+        if ((!this.hasDeadline && this.cancellation == null) || --this.deadlineCountdown > 0) return false;
+
+        this.deadlineCountdown = DEADLINE_CHECK_INTERVAL;
+        return this.deadlinePassed = (this.hasDeadline && System.nanoTime() - this.deadline > 0)
+                || (this.cancellation != null && this.cancellation.isDone());
+    }
+}
@@ -0,0 +1,78 @@
+package io.wispforest.lavendermd;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+
+/**
+ * Bounds on the resources a {@link MarkdownProcessor} may spend on processing a
+ * single input, which makes it safe to process untrusted Markdown. Hitting a limit
+ * never causes processing to fail - instead, whatever part of the input could not
+ * be processed within the limits is emitted as literal text
+ *
+ * @param maxInputLength      The amount of characters at the start of the input which are
+ *                            processed as Markdown, everything after is emitted as literal text
+ * @param maxNestingDepth     How deeply nodes may nest inside each other - tokens
+ *                            which would be parsed any deeper are emitted as literal text
+ * @param maxNodes            The amount of nodes which may be parsed, after
+ *                            which the rest of the input is emitted as literal text
+ * @param maxOutputComponents The amount of nodes which may be emitted into the compiler, after
+ *                            which only the text of the remaining nodes is emitted, unformatted
+ * @param timeLimit           The wall time processing may take, or {@code null} if it is unbounded.
+ *                            Once exceeded, processing behaves as if {@code maxNodes} and
+ *                            {@code maxOutputComponents} had been exhausted. The input is still
+ *                            lexed in full, so {@code maxInputLength} should be bounded as well
+ */
+public record ProcessingLimits(int maxInputLength, int maxNestingDepth, int maxNodes, int maxOutputComponents, @Nullable Duration timeLimit) {
+
+    public static final int UNLIMITED = Integer.MAX_VALUE;
+
+    /**
+     * No limits at all - deeply nested input may overflow the stack
+     * if it contains constructs parsed by plain parse-functions, which
+     * recurse into the parser instead of using its explicit stack
+     */
+    public static final ProcessingLimits NONE = new ProcessingLimits(UNLIMITED, UNLIMITED, UNLIMITED, UNLIMITED, null);
+
+    /**
+     * The limits processors use unless configured otherwise, which are {@link #NONE} - the built-in
+     * features parse on the parser's explicit stack and thus nest arbitrarily deep, and processing
+     * trusted input must not change its result. Processors handling untrusted input opt into
+     * limits, for instance {@link #UNTRUSTED}, through {@link MarkdownProcessor#copyWith(ProcessingLimits)}
+     */
+    public static final ProcessingLimits DEFAULT = NONE;
+
+    /**
+     * Limits suitable for processing input authored by players on the
+     * server thread, like chat messages or the contents of signs and books
+     */
+    public static final ProcessingLimits UNTRUSTED = new ProcessingLimits(16384, 32, 4096, 2048, Duration.ofMillis(5));
+
+    public ProcessingLimits {
+        if (maxInputLength < 0) throw new IllegalArgumentException("Maximum input length must not be negative");
+        if (maxNestingDepth < 1) throw new IllegalArgumentException("Maximum nesting depth must be at least 1");
+        if (maxNodes < 0) throw new IllegalArgumentException("Maximum node count must not be negative");
+        if (maxOutputComponents < 0) throw new IllegalArgumentException("Maximum output component count must not be negative");
+        if (timeLimit != null && timeLimit.isNegative()) throw new IllegalArgumentException("Time limit must not be negative");
+    }
+
+    public ProcessingLimits withMaxInputLength(int maxInputLength) {
+        return new ProcessingLimits(maxInputLength, this.maxNestingDepth, this.maxNodes, this.maxOutputComponents, this.timeLimit);
+    }
+
+    public ProcessingLimits withMaxNestingDepth(int maxNestingDepth) {
+        return new ProcessingLimits(this.maxInputLength, maxNestingDepth, this.maxNodes, this.maxOutputComponents, this.timeLimit);
+    }
+
+    public ProcessingLimits withMaxNodes(int maxNodes) {
+        return new ProcessingLimits(this.maxInputLength, this.maxNestingDepth, maxNodes, this.maxOutputComponents, this.timeLimit);
+    }
+
+    public ProcessingLimits withMaxOutputComponents(int maxOutputComponents) {
+        return new ProcessingLimits(this.maxInputLength, this.maxNestingDepth, this.maxNodes, maxOutputComponents, this.timeLimit);
+    }
+
+    public ProcessingLimits withTimeLimit(@Nullable Duration timeLimit) {
+        return new ProcessingLimits(this.maxInputLength, this.maxNestingDepth, this.maxNodes, this.maxOutputComponents, timeLimit);
+    }
+}
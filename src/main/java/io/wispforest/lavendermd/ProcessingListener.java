@@ -0,0 +1,62 @@
+package io.wispforest.lavendermd;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Receives a report on every input a {@link MarkdownProcessor} processes, which breaks down
+ * where the time went and which features were involved. Since processors may be used on
+ * multiple threads at once, listeners must be prepared to receive reports concurrently
+ * <p>
+ * Collecting a report requires timing the lexer every time the parser pulls tokens from it,
+ * since the two stages are interleaved, and counting every lex-function invocation - processors
+ * with {@link #NONE} as their listener therefore skip collecting them altogether
+ */
+@FunctionalInterface
+public interface ProcessingListener {
+
+    /**
+     * A listener which ignores all reports, and the default of all processors
+     */
+    ProcessingListener NONE = report -> {};
+
+    void onProcessed(Report report);
+
+    /**
+     * The breakdown of processing a single input. Inputs which are served from
+     * the {@linkplain MarkdownProcessor#cache() cache} of their processor are
+     * reported as well - without time spent in, or counts for, the stages they skipped
+     *
+     * @param lexTime       The time spent in the lexer while the parser pulled tokens from it
+     * @param parseTime     The time spent lexing and parsing, apart from the {@code lexTime}
+     * @param tokens        The amount of tokens the lexer produced
+     * @param parsedNodes   The amount of nodes the parser produced, before passes were applied
+     * @param compiledNodes The amount of nodes which were emitted into the compiler
+     * @param lexRewinds    How often the lexer's {@link io.wispforest.lavendermd.util.StringNibbler} was
+     *                      moved back, which happens whenever a lex-function fails after consuming input
+     * @param parseRewinds  How often the parser's {@link io.wispforest.lavendermd.util.ListNibbler} was
+     *                      moved back, which happens whenever a node fails to parse or is re-parsed
+     * @param lexFunctions  The statistics of every lex-function the processor's lexer
+     *                      dispatches to, in the order they were registered in
+     */
+    record Report(
+            Duration lexTime, Duration parseTime, Duration passTime, Duration compileTime,
+            int tokens, int parsedNodes, int compiledNodes,
+            int lexRewinds, int parseRewinds,
+            List<LexFunctionStats> lexFunctions
+    ) {
+        public Duration totalTime() {
+            return this.lexTime.plus(this.parseTime).plus(this.passTime).plus(this.compileTime);
+        }
+    }
+
+    /**
+     * @param feature   The name of the feature which registered the lex-function, or
+     *                  {@code lexer} for the functions built into the lexer itself
+     * @param trigger   The trigger the lex-function was registered for
+     * @param attempts  How often the lex-function was invoked
+     * @param successes How often the lex-function produced a token, rather than failing
+     *                  and leaving the lexer to try the next one
+     */
+    record LexFunctionStats(String feature, String trigger, int attempts, int successes) {}
+}
@@ -0,0 +1,85 @@
+package io.wispforest.lavendermd;
+
+import io.wispforest.lavendermd.util.StreamingListNibbler;
+
+import java.time.Duration;
+import java.util.ArrayList;
+
+/**
+ * Collects the {@link ProcessingListener.Report} on processing a single input
+ * while the stages of the processor run, only created if anyone listens to it
+ */
+final class ProcessingMetrics {
+
+    private final Lexer lexer;
+    private final Lexer.LexStats lexStats;
+
+    private long lexNanos = 0, parseNanos = 0, passNanos = 0, compileNanos = 0;
+    private int parsedNodes = 0, compiledNodes = 0, parseRewinds = 0;
+
+    private long compileStart;
+
+    ProcessingMetrics(Lexer lexer) {
+        this.lexer = lexer;
+        this.lexStats = new Lexer.LexStats(lexer);
+    }
+
+    /**
+     * Lex and parse {@code markdown} through the same streaming pipeline processors use without
+     * a listener. Since the two stages interleave, the stream measures the time spent lexing
+     * whenever the parser pulls tokens from it, and the remaining time is attributed to the parser
+     */
+    Parser.Node lexAndParse(Parser parser, String markdown, ProcessingBudget budget) {
+        long start = System.nanoTime(), lexNanosBefore = this.lexStats.nanos;
+
+        var nibbler = new StreamingListNibbler<>(this.lexer.stream(markdown, this.lexStats));
+        var root = parser.parse(nibbler, budget);
+
+        long lexNanos = this.lexStats.nanos - lexNanosBefore;
+        this.lexNanos += lexNanos;
+        this.parseNanos += System.nanoTime() - start - lexNanos;
+
+        this.parsedNodes += budget.parsedNodes();
+        this.parseRewinds += nibbler.rewinds();
+
+        return root;
+    }
+
+    Parser.Node applyPasses(PassPipeline passes, Parser.Node root) {
+        long start = System.nanoTime();
+        root = passes.apply(root);
+
+        this.passNanos += System.nanoTime() - start;
+        return root;
+    }
+
+    void beginCompile() {
+        this.compileStart = System.nanoTime();
+    }
+
+    void endCompile(ProcessingBudget budget) {
+        this.compileNanos += System.nanoTime() - this.compileStart;
+        this.compiledNodes += budget.emittedNodes();
+    }
+
+    ProcessingListener.Report report() {
+        var registrations = this.lexer.registrations();
+
+        var lexFunctions = new ArrayList<ProcessingListener.LexFunctionStats>(registrations.size());
+        for (var registration : registrations) {
+            lexFunctions.add(new ProcessingListener.LexFunctionStats(
+                    registration.feature(),
+                    registration.trigger(),
+                    this.lexStats.attempts[registration.index()],
+                    this.lexStats.successes[registration.index()]
+            ));
+        }
+
+        return new ProcessingListener.Report(
+                Duration.ofNanos(this.lexNanos), Duration.ofNanos(this.parseNanos), Duration.ofNanos(this.passNanos), Duration.ofNanos(this.compileNanos),
+                this.lexStats.tokens, this.parsedNodes, this.compiledNodes,
+                this.lexStats.rewinds, this.parseRewinds,
+                lexFunctions
+        );
+    }
+}
@@ -0,0 +1,39 @@
+package io.wispforest.lavendermd;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Something which {@linkplain MarkdownProcessor#processAsync(String, Executor, Executor, ProcessingTarget)
+ * asynchronously processed} results are meant for, like the component which displays them. Only the
+ * latest request for a target is of interest, so every new request supersedes and cancels the previous
+ * one - which, if it is still being parsed, stops as soon as possible to free the worker it runs on
+ */
+public final class ProcessingTarget {
+
+    private final AtomicReference<@Nullable CompletableFuture<?>> pending = new AtomicReference<>();
+
+    /**
+     * Make {@code request} the latest request for this
+     * target, cancelling the previous one if it is still running
+     */
+    void supersede(CompletableFuture<?> request) {
+        var previous = this.pending.getAndSet(request);
+        if (previous != null) previous.cancel(false);
+
+        // don't hold on to the result once it has been delivered
+        request.whenComplete((result, throwable) -> this.pending.compareAndSet(request, null));
+    }
+
+    /**
+     * Cancel the latest request for this target if it is still running,
+     * for instance because the component it was meant for has been closed
+     */
+    public void cancel() {
+        var pending = this.pending.getAndSet(null);
+        if (pending != null) pending.cancel(false);
+    }
+}
@@ -0,0 +1,127 @@
+package io.wispforest.lavendermd;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, thread-safe LRU cache of the {@linkplain Document documents} a single {@link MarkdownProcessor}
+ * parsed, keyed by the input they were parsed from. Compiled results are never cached, since compilers
+ * generally produce mutable results - every lookup through the processor compiles the cached document again
+ * <p>
+ * Entries are evicted in least-recently-used order once either the amount of entries or their
+ * estimated retained size exceeds the {@linkplain Settings settings} of the cache. Documents which
+ * ran into the time limit of their processor are not cached, since they may be incomplete
+ */
+public final class ResultCache {
+
+    // rough size of the parts of an entry which do not depend on its document - the estimate
+    // only has to be in the right order of magnitude for the size bound to be meaningful
+    private static final long ENTRY_OVERHEAD = 128;
+
+    private final Settings settings;
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, .75f, true);
+
+    private long estimatedSize = 0;
+    private long hits = 0, misses = 0, evictions = 0;
+
+    ResultCache(Settings settings) {
+        this.settings = settings;
+    }
+
+    public Settings settings() {
+        return this.settings;
+    }
+
+    public Stats stats() {
+        synchronized (this.entries) {
+            return new Stats(this.hits, this.misses, this.evictions, this.entries.size(), this.estimatedSize);
+        }
+    }
+
+    public void clear() {
+        synchronized (this.entries) {
+            this.entries.clear();
+            this.estimatedSize = 0;
+        }
+    }
+
+    /**
+     * Look up the document cached for {@code input}, counting the lookup as a hit or miss
+     *
+     * @return The cached document, or {@code null} if there is none
+     */
+    @Nullable Document get(String input) {
+        synchronized (this.entries) {
+            var entry = this.entries.get(input);
+
+            if (entry != null) {
+                this.hits++;
+                return entry.document;
+            } else {
+                this.misses++;
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Cache {@code document} for {@code input}, evicting the least recently
+     * used entries until the cache fits within its settings again
+     *
+     * @param documentSize The estimated retained size of {@code document} in bytes
+     */
+    void put(String input, Document document, long documentSize) {
+        long size = ENTRY_OVERHEAD + 2L * input.length() + documentSize;
+        if (size > this.settings.maxEstimatedSize) return;
+
+        synchronized (this.entries) {
+            // another thread may have processed the same input in the meantime
+            var previous = this.entries.put(input, new Entry(document, size));
+            if (previous != null) this.estimatedSize -= previous.size;
+
+            this.estimatedSize += size;
+
+            Iterator<Entry> eldest = this.entries.values().iterator();
+            while (this.entries.size() > this.settings.maxEntries || this.estimatedSize > this.settings.maxEstimatedSize) {
+                this.estimatedSize -= eldest.next().size;
+                eldest.remove();
+
+                this.evictions++;
+            }
+        }
+    }
+
+    private record Entry(Document document, long size) {}
+
+    /**
+     * @param maxEntries       The amount of documents the cache may hold
+     * @param maxEstimatedSize The estimated size in bytes which all cached documents,
+     *                         along with the inputs they are keyed by, may retain
+     */
+    public record Settings(int maxEntries, long maxEstimatedSize) {
+
+        /**
+         * Settings which disable caching altogether
+         */
+        public static final Settings DISABLED = new Settings(0, 0);
+
+        public Settings {
+            if (maxEntries < 0) throw new IllegalArgumentException("Maximum entry count must not be negative");
+            if (maxEstimatedSize < 0) throw new IllegalArgumentException("Maximum estimated size must not be negative");
+        }
+
+        public boolean enabled() {
+            return this.maxEntries > 0 && this.maxEstimatedSize > 0;
+        }
+    }
+
+    public record Stats(long hits, long misses, long evictions, int entries, long estimatedSize) {
+        public double hitRate() {
+            long lookups = this.hits + this.misses;
+            return lookups == 0 ? 0 : (double) this.hits / lookups;
+        }
+    }
+}
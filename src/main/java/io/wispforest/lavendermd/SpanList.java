@@ -0,0 +1,357 @@
+package io.wispforest.lavendermd;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+/**
+ * A sequence of spans - consecutive ranges of some coordinate space, like the characters of a document -
+ * kept in a balanced tree which stores how long each span is instead of where it starts. Positions are summed
+ * up while descending the tree, so replacing some spans does not require shifting all spans after them, and
+ * every lookup takes logarithmic time in the amount of spans
+ * <p>
+ * Besides its length, every span has a weight in a second coordinate space (like the amount of tokens a range
+ * of characters was lexed into) and records the window of positions which was inspected to create it. Every
+ * subtree knows the lowest and highest position inspected within it, so that the first and last spans which
+ * inspected some position can be found without visiting all spans in between
+ * <p>
+ * The tree is a treap whose nodes are the spans themselves, so a span may only ever be in one list
+ *
+ * @param <S> The type of span stored in this list
+ */
+final class SpanList<S extends SpanList.Span> {
+
+    private Span root = null;
+
+    /**
+     * @return The amount of spans in this list
+     */
+    int size() {
+        return size(this.root);
+    }
+
+    /**
+     * @return The total weight of all spans in this list
+     */
+    int weight() {
+        return this.root == null ? 0 : this.root.totalWeight;
+    }
+
+    @SuppressWarnings("unchecked")
+    S get(int index) {
+        var node = this.root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return (S) node;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * @return The position at which the span at {@code index} starts, or
+     * the position just after the last span if {@code index} is the size of this list
+     */
+    int startOf(int index) {
+        int start = 0;
+
+        var node = this.root;
+        while (node != null) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return start + length(node.left);
+            } else {
+                start += length(node.left) + node.length;
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+
+        return start;
+    }
+
+    /**
+     * @return The total weight of all spans before {@code index}
+     */
+    int weightBefore(int index) {
+        int weight = 0;
+
+        var node = this.root;
+        while (node != null) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return weight + weight(node.left);
+            } else {
+                weight += weight(node.left) + node.weight;
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+
+        return weight;
+    }
+
+    /**
+     * @return The index of the span whose weight covers {@code weight}, when
+     * counting the weight of all spans in order, or {@code -1} if there is none
+     */
+    int indexAtWeight(int weight) {
+        int index = 0;
+
+        var node = this.root;
+        while (node != null) {
+            int leftWeight = weight(node.left);
+            if (weight < leftWeight) {
+                node = node.left;
+            } else if (weight < leftWeight + node.weight) {
+                return index + size(node.left);
+            } else {
+                weight -= leftWeight + node.weight;
+                index += size(node.left) + 1;
+                node = node.right;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return The index of the span starting at {@code position}, or {@code -1} if there is none
+     */
+    int indexStartingAt(int position) {
+        int start = 0, index = 0;
+
+        var node = this.root;
+        while (node != null) {
+            int nodeStart = start + length(node.left);
+            if (position < nodeStart) {
+                node = node.left;
+            } else if (position == nodeStart) {
+                return index + size(node.left);
+            } else if (position < nodeStart + node.length) {
+                return -1;
+            } else {
+                start = nodeStart + node.length;
+                index += size(node.left) + 1;
+                node = node.right;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return The index of the first span which inspected {@code position}
+     * or anything after it, or {@code -1} if there is none
+     */
+    int firstReadingFrom(int position) {
+        if (this.root == null || this.root.highestInSubtree < position) return -1;
+
+        int start = 0, index = 0;
+
+        var node = this.root;
+        while (true) {
+            if (node.left != null && start + node.left.highestInSubtree >= position) {
+                node = node.left;
+                continue;
+            }
+
+            int nodeStart = start + length(node.left);
+            if (nodeStart + node.highestRead >= position) return index + size(node.left);
+
+            // some span in this subtree inspected the position or anything after
+            // it, so if neither the left subtree nor this span did, the right one must have
+            start = nodeStart + node.length;
+            index += size(node.left) + 1;
+            node = node.right;
+        }
+    }
+
+    /**
+     * @return The index of the last span which inspected anything
+     * before {@code position}, or {@code -1} if there is none
+     */
+    int lastReadingBefore(int position) {
+        if (this.root == null || this.root.lowestInSubtree >= position) return -1;
+
+        int start = 0, index = 0;
+
+        var node = this.root;
+        while (true) {
+            int nodeStart = start + length(node.left);
+            if (node.right != null && nodeStart + node.length + node.right.lowestInSubtree < position) {
+                start = nodeStart + node.length;
+                index += size(node.left) + 1;
+                node = node.right;
+                continue;
+            }
+
+            if (nodeStart + node.lowestRead < position) return index + size(node.left);
+            node = node.left;
+        }
+    }
+
+    /**
+     * Append {@code span} to the end of this list
+     */
+    void add(S span) {
+        this.root = merge(this.root, span);
+    }
+
+    /**
+     * Replace the spans from {@code from} (inclusive) to {@code to} (exclusive) with {@code spans},
+     * which must cover exactly the positions the replaced spans did after the edit that caused
+     * the replacement. All spans after them implicitly move along
+     *
+     * @param removed Invoked with every replaced span, in order
+     */
+    void replace(int from, int to, List<S> spans, Consumer<? super S> removed) {
+        var tail = split(this.root, to);
+        var head = split(tail[0], from);
+
+        forEach(head[1], removed);
+
+        var replacement = head[0];
+        for (var span : spans) {
+            replacement = merge(replacement, span);
+        }
+
+        this.root = merge(replacement, tail[1]);
+    }
+
+    void clear() {
+        this.root = null;
+    }
+
+    /**
+     * Invoke {@code action} with every span in this list, in order
+     */
+    void forEach(Consumer<? super S> action) {
+        forEach(this.root, action);
+    }
+
+    // --- tree ---
+
+    @SuppressWarnings("unchecked")
+    private static <S extends Span> void forEach(Span node, Consumer<? super S> action) {
+        if (node == null) return;
+
+        forEach(node.left, action);
+        action.accept((S) node);
+        forEach(node.right, action);
+    }
+
+    private static Span merge(Span left, Span right) {
+        if (left == null) return right;
+        if (right == null) return left;
+
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            left.update();
+            return left;
+        } else {
+            right.left = merge(left, right.left);
+            right.update();
+            return right;
+        }
+    }
+
+    /**
+     * Split the tree rooted at {@code node} into the first
+     * {@code count} spans and the remaining ones
+     */
+    private static Span[] split(Span node, int count) {
+        if (node == null) return new Span[2];
+
+        if (count <= size(node.left)) {
+            var halves = split(node.left, count);
+            node.left = halves[1];
+            node.update();
+
+            halves[1] = node;
+            return halves;
+        } else {
+            var halves = split(node.right, count - size(node.left) - 1);
+            node.right = halves[0];
+            node.update();
+
+            halves[0] = node;
+            return halves;
+        }
+    }
+
+    private static int size(Span node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static int length(Span node) {
+        return node == null ? 0 : node.totalLength;
+    }
+
+    private static int weight(Span node) {
+        return node == null ? 0 : node.totalWeight;
+    }
+
+    /**
+     * A single span, which doubles as the node of the tree storing it
+     */
+    abstract static class Span {
+
+        private final int length, weight;
+
+        // the window inspected to create this span, relative to its start
+        private final int lowestRead, highestRead;
+
+        private final int priority = ThreadLocalRandom.current().nextInt();
+        private Span left, right;
+
+        // aggregates over the subtree rooted at this span, with
+        // the inspected window relative to the start of the subtree
+        private int size, totalLength, totalWeight;
+        private int lowestInSubtree, highestInSubtree;
+
+        /**
+         * Create a span covering the range {@code [start, end)}, which inspected {@code [lowestRead, highestRead]}
+         * to be created. Positions are only needed relative to each other, so they can be given in
+         * the coordinates of the edit the span is created for
+         */
+        protected Span(int start, int end, int lowestRead, int highestRead, int weight) {
+            this.length = end - start;
+            this.weight = weight;
+            this.lowestRead = lowestRead - start;
+            this.highestRead = highestRead - start;
+
+            this.update();
+        }
+
+        private void update() {
+            int start = length(this.left);
+
+            this.size = size(this.left) + 1 + size(this.right);
+            this.totalLength = start + this.length + length(this.right);
+            this.totalWeight = weight(this.left) + this.weight + weight(this.right);
+
+            this.lowestInSubtree = start + this.lowestRead;
+            this.highestInSubtree = start + this.highestRead;
+
+            if (this.left != null) {
+                this.lowestInSubtree = Math.min(this.lowestInSubtree, this.left.lowestInSubtree);
+                this.highestInSubtree = Math.max(this.highestInSubtree, this.left.highestInSubtree);
+            }
+
+            if (this.right != null) {
+                this.lowestInSubtree = Math.min(this.lowestInSubtree, start + this.length + this.right.lowestInSubtree);
+                this.highestInSubtree = Math.max(this.highestInSubtree, start + this.length + this.right.highestInSubtree);
+            }
+        }
+    }
+}
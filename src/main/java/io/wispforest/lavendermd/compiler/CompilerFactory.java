@@ -0,0 +1,56 @@
+package io.wispforest.lavendermd.compiler;
+
+import java.util.function.Supplier;
+
+/**
+ * A compiler factory which describes the compilers it creates without having to create
+ * one. Processors constructed with such a factory check whether their features support its
+ * compilers right away, instead of only once they create the first of them - creating a compiler
+ * just to check it would mean building a throwaway component tree for compilers of UI components
+ *
+ * @param <R> The result type of the compilers this factory creates
+ */
+public interface CompilerFactory<R> extends Supplier<MarkdownCompiler<R>> {
+
+    /**
+     * @return A class which every compiler created by this factory is an instance of
+     */
+    Class<?> compilerClass();
+
+    /**
+     * @return Whether the compilers created by this factory {@linkplain
+     * MarkdownCompiler#requiresRenderThread() require the render thread}
+     */
+    boolean requiresRenderThread();
+
+    /**
+     * Describe {@code factory}, which creates compilers of type {@code compilerClass}
+     * that do not require the render thread
+     */
+    static <R, C extends MarkdownCompiler<R>> CompilerFactory<R> of(Class<C> compilerClass, Supplier<? extends C> factory) {
+        return of(compilerClass, factory, false);
+    }
+
+    /**
+     * Describe {@code factory}, which creates compilers of type {@code compilerClass}. {@code requiresRenderThread}
+     * must match what these compilers return from {@link MarkdownCompiler#requiresRenderThread()}
+     */
+    static <R, C extends MarkdownCompiler<R>> CompilerFactory<R> of(Class<C> compilerClass, Supplier<? extends C> factory, boolean requiresRenderThread) {
+        return new CompilerFactory<>() {
+            @Override
+            public MarkdownCompiler<R> get() {
+                return factory.get();
+            }
+
+            @Override
+            public Class<?> compilerClass() {
+                return compilerClass;
+            }
+
+            @Override
+            public boolean requiresRenderThread() {
+                return requiresRenderThread;
+            }
+        };
+    }
+}
@@ -81,4 +81,13 @@ public interface MarkdownCompiler<R> {
      * @return A name for this compiler, to be used in logging messages
      */
     String name();
+
+    /**
+     * @return {@code true} if this compiler may only be used on the render thread, for
+     * instance because it creates UI components. Processors refuse to compile with such
+     * compilers in {@link io.wispforest.lavendermd.MarkdownProcessor#processAll(java.util.List, java.util.concurrent.Executor)}
+     */
+    default boolean requiresRenderThread() {
+        return false;
+    }
 }
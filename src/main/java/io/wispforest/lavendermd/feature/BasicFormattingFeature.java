@@ -1,12 +1,13 @@
 package io.wispforest.lavendermd.feature;
 
+import io.wispforest.lavendermd.DocumentCodec;
 import io.wispforest.lavendermd.Lexer;
 import io.wispforest.lavendermd.MarkdownFeature;
 import io.wispforest.lavendermd.Parser;
 import io.wispforest.lavendermd.compiler.MarkdownCompiler;
 import net.minecraft.text.Style;
 
-import java.util.function.UnaryOperator;
+import java.util.function.Supplier;
 
 public class BasicFormattingFeature implements MarkdownFeature {
 
@@ -26,22 +27,37 @@ public class BasicFormattingFeature implements MarkdownFeature {
     }
 
     @Override
-    public boolean supportsCompiler(MarkdownCompiler<?> compiler) {
+    public boolean supportsCompiler(Class<?> compilerClass) {
         return true;
     }
 
+    @Override
+    public Object registrationKey() {
+        return this.enableHorizontalRule;
+    }
+
     @Override
     public void registerTokens(TokenRegistrar registrar) {
         registrar.registerToken(Lexer.Token.lexFromChar(TildeToken::new), '~');
         registrar.registerToken(Lexer.Token.lexFromChar(UnderscoreToken::new), '_');
 
         registrar.registerToken((nibbler, tokens) -> {
-            int starCount = nibbler.consumeUntilEndOr(c -> c != '*').length();
+            int starCount = nibbler.skipWhile(c -> c == '*');
 
             boolean leftAdjacent = !nibbler.expect(-starCount - 1, ' ');
             boolean rightAdjacent = !nibbler.expect(0, ' ');
 
-            if (starCount > 3 || !(rightAdjacent || leftAdjacent)) {
+            // rejecting longer runs would make the lexer retry at every star of the run,
+            // which is quadratic - instead, do what those retries end up doing at once: all
+            // but the last three stars are plain text, and those three are left-adjacent
+            if (starCount > 3) {
+                Lexer.appendText(tokens, nibbler.string, nibbler.cursor() - starCount, nibbler.cursor() - 3);
+
+                starCount = 3;
+                leftAdjacent = true;
+            }
+
+            if (!(rightAdjacent || leftAdjacent)) {
                 return false;
             }
 
@@ -53,10 +69,10 @@ public class BasicFormattingFeature implements MarkdownFeature {
 
         if (this.enableHorizontalRule) {
             registrar.registerToken((nibbler, tokens) -> {
-                if (!nibbler.expect(-1, '\n') || !nibbler.expect(-2, '\n')) return false;
+                if (nibbler.column() != 0 || !nibbler.expect(-2, '\n')) return false;
 
-                var dashes = nibbler.consumeUntilEndOr(c -> c != '-');
-                if (dashes.length() != 3 || !nibbler.expect(0, '\n') || !nibbler.expect(1, '\n')) {
+                int dashes = nibbler.skipWhile(c -> c == '-');
+                if (dashes != 3 || !nibbler.expect(0, '\n') || !nibbler.expect(1, '\n')) {
                     return false;
                 }
 
@@ -68,54 +84,52 @@ public class BasicFormattingFeature implements MarkdownFeature {
 
     @Override
     public void registerNodes(NodeRegistrar registrar) {
-        this.registerDoubleTokenFormatting(registrar, TildeToken.class, style -> style.withStrikethrough(true));
-        this.registerDoubleTokenFormatting(registrar, UnderscoreToken.class, style -> style.withUnderline(true));
-
-        registrar.registerNode((parser, left, tokens) -> {
-            int pointer = tokens.pointer();
-            var content = parser.parseUntil(tokens, StarToken.class);
-
-            if (tokens.peek() instanceof StarToken right && right.leftAdjacent) {
-                tokens.nibble();
-
-                if (content instanceof StarNode star) {
-                    if (star.canIncrementStarCount()) {
-                        return star.incrementStarCount();
+        this.registerDoubleTokenFormatting(registrar, TildeToken.class, StrikethroughNode::new);
+        this.registerDoubleTokenFormatting(registrar, UnderscoreToken.class, UnderlineNode::new);
+
+        registrar.registerPairedNode(new Parser.PairedDelimiter<>(
+                StarToken.class, 1, (opener, tokens) -> opener.rightAdjacent,
+                StarToken.class, 1, (closer, tokens) -> closer.leftAdjacent,
+                (opener, closer, content) -> {
+                    if (content instanceof StarNode star) {
+                        return star.canIncrementStarCount()
+                                ? star.withIncrementedStarCount()
+                                : new Parser.TextNode("*").addChild(content).addChild(new Parser.TextNode("*"));
                     } else {
-                        return new Parser.TextNode("*").addChild(content).addChild(new Parser.TextNode("*"));
+                        return new StarNode(1).addChild(content);
                     }
-                } else {
-                    return new StarNode().addChild(content);
                 }
-            } else {
-                tokens.setPointer(pointer);
-                return new Parser.TextNode(left.content());
-            }
-        }, (token, tokens) -> token instanceof StarToken star && star.rightAdjacent ? star : null);
+        ));
 
         if (this.enableHorizontalRule) {
             registrar.registerNode(
                     (parser, rule, tokens) -> new HorizontalRuleNode(),
-                    (token, tokens) -> token instanceof HorizontalRuleToken rule ? rule : null
+                    HorizontalRuleToken.class
             );
         }
     }
 
-    private <T extends Lexer.Token> void registerDoubleTokenFormatting(NodeRegistrar registrar, Class<T> tokenClass, UnaryOperator<Style> formatting) {
-        registrar.registerNode((parser, left1, tokens) -> {
-            var left2 = tokens.nibble();
+    @Override
+    public void registerCodecs(CodecRegistrar registrar) {
+        registrar.registerCodec("strikethrough", StrikethroughNode.class, DocumentCodec.NodeCodec.unit(StrikethroughNode::new));
+        registrar.registerCodec("underline", UnderlineNode.class, DocumentCodec.NodeCodec.unit(UnderlineNode::new));
 
-            int pointer = tokens.pointer();
-            var content = parser.parseUntil(tokens, tokenClass);
+        registrar.registerCodec("emphasis", StarNode.class, DocumentCodec.NodeCodec.of(
+                (node, output) -> output.writeVarInt(node.starCount),
+                input -> new StarNode(input.readVarInt())
+        ));
 
-            if (tokenClass.isInstance(tokens.peek()) && tokenClass.isInstance(tokens.peek(1))) {
-                tokens.skip(2);
-                return new Parser.FormattingNode(formatting).addChild(content);
-            } else {
-                tokens.setPointer(pointer);
-                return new Parser.TextNode(left1.content() + left2.content());
-            }
-        }, (token, tokens) -> tokenClass.isInstance(token) && tokenClass.isInstance(tokens.peek()) ? tokenClass.cast(token) : null);
+        if (this.enableHorizontalRule) {
+            registrar.registerCodec("horizontal_rule", HorizontalRuleNode.class, DocumentCodec.NodeCodec.unit(HorizontalRuleNode::new));
+        }
+    }
+
+    private <T extends Lexer.Token> void registerDoubleTokenFormatting(NodeRegistrar registrar, Class<T> tokenClass, Supplier<Parser.Node> nodeFactory) {
+        registrar.registerPairedNode(new Parser.PairedDelimiter<>(
+                tokenClass, 2, (opener, tokens) -> tokenClass.isInstance(tokens.peek()),
+                tokenClass, 2, (closer, tokens) -> tokenClass.isInstance(tokens.peek(1)),
+                (opener, closer, content) -> nodeFactory.get().addChild(content)
+        ));
     }
 
     // --- tokens ---
@@ -153,10 +167,11 @@ public class BasicFormattingFeature implements MarkdownFeature {
 
     private static class StarNode extends Parser.FormattingNode {
 
-        private int starCount = 1;
+        private final int starCount;
 
-        public StarNode() {
+        public StarNode(int starCount) {
             super(style -> style);
+            this.starCount = starCount;
         }
 
         @Override
@@ -164,9 +179,16 @@ public class BasicFormattingFeature implements MarkdownFeature {
             return style.withItalic(this.starCount % 2 == 1 ? true : null).withBold(this.starCount > 1 ? true : null);
         }
 
-        public StarNode incrementStarCount() {
-            this.starCount++;
-            return this;
+        /**
+         * @return A copy of this node with the same children and
+         * one more star - the parser may hand out the same node more than
+         * once while resolving delimiters, so nodes must not be modified in-place
+         */
+        public StarNode withIncrementedStarCount() {
+            var incremented = new StarNode(this.starCount + 1);
+            this.children.forEach(incremented::addChild);
+
+            return incremented;
         }
 
         public boolean canIncrementStarCount() {
@@ -174,6 +196,18 @@ public class BasicFormattingFeature implements MarkdownFeature {
         }
     }
 
+    private static class StrikethroughNode extends Parser.FormattingNode {
+        public StrikethroughNode() {
+            super(style -> style.withStrikethrough(true));
+        }
+    }
+
+    private static class UnderlineNode extends Parser.FormattingNode {
+        public UnderlineNode() {
+            super(style -> style.withUnderline(true));
+        }
+    }
+
     private static class HorizontalRuleNode extends Parser.Node {
         @Override
         protected void visitStart(MarkdownCompiler<?> compiler) {
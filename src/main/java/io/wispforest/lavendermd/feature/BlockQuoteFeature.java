@@ -1,5 +1,6 @@
 package io.wispforest.lavendermd.feature;
 
+import io.wispforest.lavendermd.DocumentCodec;
 import io.wispforest.lavendermd.Lexer;
 import io.wispforest.lavendermd.MarkdownFeature;
 import io.wispforest.lavendermd.Parser;
@@ -12,27 +13,41 @@ public class BlockQuoteFeature implements MarkdownFeature {
     }
 
     @Override
-    public boolean supportsCompiler(MarkdownCompiler<?> compiler) {
+    public boolean supportsCompiler(Class<?> compilerClass) {
         return true;
     }
 
+    @Override
+    public Object registrationKey() {
+        return this.getClass();
+    }
+
     @Override
     public void registerTokens(TokenRegistrar registrar) {
         registrar.registerToken((nibbler, tokens) -> {
-            var brackets = nibbler.consumeUntilEndOr(c -> c != '>');
+            int start = nibbler.cursor();
+
+            int brackets = nibbler.skipWhile(c -> c == '>');
             if (!nibbler.tryConsume(' ')) return false;
 
-            tokens.add(new QuotationToken(brackets.length()));
+            tokens.add(new QuotationToken(nibbler.consumedSince(start), brackets));
             return true;
         }, '>');
     }
 
     @Override
     public void registerNodes(NodeRegistrar registrar) {
-        registrar.registerNode(
-                (parser, current, tokens) -> new QuotationNode().addChild(parser.parseUntil(tokens, $ -> $.isBoundary() && (!($ instanceof QuotationToken) || ((QuotationToken) $).depth < current.depth), $ -> $ instanceof QuotationToken quote && quote.depth == current.depth)),
-                (token, tokens) -> token instanceof QuotationToken current && (tokens.peek(-2) == null || tokens.peek(-2) instanceof Lexer.NewlineToken) ? current : null
-        );
+        registrar.registerContainerNode(new Parser.Container<>(
+                QuotationToken.class, (current, tokens) -> tokens.peek(-2) == null || tokens.peek(-2) instanceof Lexer.NewlineToken,
+                (current, token) -> token.isBoundary() && (!(token instanceof QuotationToken quote) || quote.depth < current.depth),
+                (current, token) -> token instanceof QuotationToken quote && quote.depth == current.depth,
+                (current, content) -> new QuotationNode().addChild(content)
+        ));
+    }
+
+    @Override
+    public void registerCodecs(CodecRegistrar registrar) {
+        registrar.registerCodec("block_quote", QuotationNode.class, DocumentCodec.NodeCodec.unit(QuotationNode::new));
     }
 
     // --- token ---
@@ -41,8 +56,8 @@ public class BlockQuoteFeature implements MarkdownFeature {
 
         public final int depth;
 
-        public QuotationToken(int depth) {
-            super(">".repeat(depth) + " ");
+        public QuotationToken(CharSequence content, int depth) {
+            super(content);
             this.depth = depth;
         }
 
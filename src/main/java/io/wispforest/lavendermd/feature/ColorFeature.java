@@ -1,18 +1,17 @@
 package io.wispforest.lavendermd.feature;
 
 import com.google.common.collect.ImmutableMap;
+import io.wispforest.lavendermd.DocumentCodec;
 import io.wispforest.lavendermd.Lexer;
 import io.wispforest.lavendermd.MarkdownFeature;
 import io.wispforest.lavendermd.Parser;
-import io.wispforest.lavendermd.compiler.MarkdownCompiler;
-import net.minecraft.text.Style;
+import net.minecraft.text.TextColor;
 import net.minecraft.util.Formatting;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.Locale;
 import java.util.Map;
 import java.util.function.Function;
-import java.util.function.UnaryOperator;
 import java.util.stream.Stream;
 
 public class ColorFeature implements MarkdownFeature {
@@ -21,19 +20,28 @@ public class ColorFeature implements MarkdownFeature {
             .filter(Formatting::isColor)
             .collect(ImmutableMap.toImmutableMap(formatting -> formatting.getName().toLowerCase(Locale.ROOT), Function.identity()));
 
+    private static final int MAX_COLOR_NAME_LENGTH = FORMATTING_COLORS.keySet().stream().mapToInt(String::length).max().orElse(0);
+
     @Override
     public String name() {
         return "colors";
     }
 
     @Override
-    public boolean supportsCompiler(MarkdownCompiler<?> compiler) {
+    public boolean supportsCompiler(Class<?> compilerClass) {
         return true;
     }
 
+    @Override
+    public Object registrationKey() {
+        return this.getClass();
+    }
+
     @Override
     public void registerTokens(TokenRegistrar registrar) {
         registrar.registerToken((nibbler, tokens) -> {
+            int start = nibbler.cursor();
+
             nibbler.skip();
             if (!nibbler.hasNext()) return false;
 
@@ -41,20 +49,25 @@ public class ColorFeature implements MarkdownFeature {
                 nibbler.skip();
                 tokens.add(new CloseColorToken());
             } else {
+                // reject before copying anything if the closing
+                // brace is missing or too far away to enclose a color
+                int closeIndex = nibbler.nextIndexOf('}');
+                if (closeIndex == -1 || closeIndex - nibbler.cursor() > Math.max(MAX_COLOR_NAME_LENGTH, 7)) return false;
+
                 if (nibbler.peek() == '#') {
                     nibbler.skip();
 
                     var color = nibbler.consumeUntil('}');
                     if (color == null) return false;
 
-                    if (!color.matches("[0-9a-fA-F]{6}")) return false;
-                    tokens.add(new OpenColorToken("{#" + color + "}", style -> style.withColor(Integer.parseInt(color, 16))));
+                    if (!isHexColor(color)) return false;
+                    tokens.add(new OpenColorToken(nibbler.consumedSince(start), TextColor.fromRgb(Integer.parseInt(color, 16))));
                 } else {
                     var color = nibbler.consumeUntil('}');
                     if (color == null) return false;
 
                     if (!FORMATTING_COLORS.containsKey(color)) return false;
-                    tokens.add(new OpenColorToken("{" + color + "}", style -> style.withFormatting(FORMATTING_COLORS.get(color))));
+                    tokens.add(new OpenColorToken(nibbler.consumedSince(start), TextColor.fromFormatting(FORMATTING_COLORS.get(color))));
                 }
             }
 
@@ -65,29 +78,45 @@ public class ColorFeature implements MarkdownFeature {
 
     @Override
     public void registerNodes(NodeRegistrar registrar) {
-        registrar.registerNode((parser, left, tokens) -> {
-            int pointer = tokens.pointer();
-            var content = parser.parseUntil(tokens, CloseColorToken.class);
+        registrar.registerPairedNode(Parser.PairedDelimiter.of(
+                OpenColorToken.class, CloseColorToken.class,
+                (opener, closer, content) -> new ColorNode(opener.color).addChild(content)
+        ));
+    }
 
-            if (tokens.peek() instanceof CloseColorToken) {
-                tokens.nibble();
-                return new Parser.FormattingNode(left.style).addChild(content);
-            } else {
-                tokens.setPointer(pointer);
-                return new Parser.TextNode(left.content());
-            }
-        }, (token, tokens) -> token instanceof OpenColorToken color ? color : null);
+    @Override
+    public void registerCodecs(CodecRegistrar registrar) {
+        registrar.registerCodec("color", ColorNode.class, DocumentCodec.NodeCodec.of(
+                (node, output) -> output.writeString(node.color.getName()),
+                input -> {
+                    var color = TextColor.parse(input.readString());
+                    if (color == null) throw new IllegalArgumentException("Invalid encoded color");
+
+                    return new ColorNode(color);
+                }
+        ));
+    }
+
+    private static boolean isHexColor(String color) {
+        if (color.length() != 6) return false;
+
+        for (int i = 0; i < color.length(); i++) {
+            char c = color.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f') && (c < 'A' || c > 'F')) return false;
+        }
+
+        return true;
     }
 
     // --- tokens ---
 
     private static final class OpenColorToken extends Lexer.Token {
 
-        public final @NotNull UnaryOperator<Style> style;
+        public final @NotNull TextColor color;
 
-        public OpenColorToken(String content, @NotNull UnaryOperator<Style> style) {
+        public OpenColorToken(CharSequence content, @NotNull TextColor color) {
             super(content);
-            this.style = style;
+            this.color = color;
         }
     }
 
@@ -96,4 +125,16 @@ public class ColorFeature implements MarkdownFeature {
             super("{}");
         }
     }
+
+    // --- node ---
+
+    private static class ColorNode extends Parser.FormattingNode {
+
+        private final TextColor color;
+
+        public ColorNode(TextColor color) {
+            super(style -> style.withColor(color));
+            this.color = color;
+        }
+    }
 }
@@ -1,5 +1,6 @@
 package io.wispforest.lavendermd.feature;
 
+import io.wispforest.lavendermd.DocumentCodec;
 import io.wispforest.lavendermd.Lexer;
 import io.wispforest.lavendermd.MarkdownFeature;
 import io.wispforest.lavendermd.Parser;
@@ -14,16 +15,28 @@ public class ImageFeature implements MarkdownFeature {
     }
 
     @Override
-    public boolean supportsCompiler(MarkdownCompiler<?> compiler) {
+    public boolean supportsCompiler(Class<?> compilerClass) {
         return true;
     }
 
+    @Override
+    public Object registrationKey() {
+        return this.getClass();
+    }
+
     @Override
     public void registerTokens(TokenRegistrar registrar) {
         registrar.registerToken((nibbler, tokens) -> {
+            int start = nibbler.cursor();
+
             nibbler.skip();
             if (!nibbler.tryConsume('[')) return false;
 
+            // make sure the entire construct is terminated
+            // before copying out any of its components
+            int descriptionEnd = nibbler.nextIndexOf(']');
+            if (descriptionEnd == -1 || nibbler.nextIndexOf(')', descriptionEnd) == -1) return false;
+
             var description = nibbler.consumeUntil(']');
             if (description == null || !nibbler.tryConsume('(')) return false;
 
@@ -34,7 +47,7 @@ public class ImageFeature implements MarkdownFeature {
             if (fit) identifier = identifier.substring(0, identifier.length() - 4);
             if (Identifier.tryParse(identifier) == null) return false;
 
-            tokens.add(new ImageToken(description, identifier, fit));
+            tokens.add(new ImageToken(nibbler.consumedSince(start), description, identifier, fit));
             return true;
         }, '!');
 
@@ -44,10 +57,22 @@ public class ImageFeature implements MarkdownFeature {
     public void registerNodes(NodeRegistrar registrar) {
         registrar.registerNode(
                 (parser, image, tokens) -> new ImageNode(image.identifier, image.description, image.fit),
-                (token, tokens) -> token instanceof ImageToken image ? image : null
+                ImageToken.class
         );
     }
 
+    @Override
+    public void registerCodecs(CodecRegistrar registrar) {
+        registrar.registerCodec("image", ImageNode.class, DocumentCodec.NodeCodec.of(
+                (node, output) -> {
+                    output.writeString(node.identifier);
+                    output.writeString(node.description);
+                    output.writeBoolean(node.fit);
+                },
+                input -> new ImageNode(input.readString(), input.readString(), input.readBoolean())
+        ));
+    }
+
     // --- token ---
 
     private static final class ImageToken extends Lexer.Token {
@@ -55,8 +80,8 @@ public class ImageFeature implements MarkdownFeature {
         public final String description, identifier;
         public final boolean fit;
 
-        public ImageToken(String description, String identifier, boolean fit) {
-            super("![" + description + "](" + identifier + ")");
+        public ImageToken(CharSequence content, String description, String identifier, boolean fit) {
+            super(content);
             this.description = description;
             this.identifier = identifier;
             this.fit = fit;
@@ -1,5 +1,8 @@
 package io.wispforest.lavendermd.feature;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.wispforest.lavendermd.DocumentCodec;
 import io.wispforest.lavendermd.Lexer;
 import io.wispforest.lavendermd.MarkdownFeature;
 import io.wispforest.lavendermd.Parser;
@@ -10,45 +13,129 @@ import net.minecraft.client.resource.language.I18n;
 import net.minecraft.text.HoverEvent;
 import net.minecraft.text.Text;
 import net.minecraft.util.Formatting;
+import net.minecraft.util.Language;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 public class KeybindFeature implements MarkdownFeature {
 
+    private static final String TRIGGER = "<keybind;";
+
+    // the index is only ever replaced, never mutated, so
+    // lexing on multiple threads at once can safely share it
+    private static volatile @Nullable KeybindIndex keybindIndex = null;
+
+    // keyed weakly, so that bindings which are removed from the
+    // options (for instance by reloading mods) can still be collected
+    private static final Cache<KeyBinding, BoundKeyName> BOUND_KEY_NAMES = CacheBuilder.newBuilder().weakKeys().build();
+
     @Override
     public String name() {
         return "keybindings";
     }
 
     @Override
-    public boolean supportsCompiler(MarkdownCompiler<?> compiler) {
+    public boolean supportsCompiler(Class<?> compilerClass) {
         return true;
     }
 
+    @Override
+    public Object registrationKey() {
+        return this.getClass();
+    }
+
     @Override
     public void registerTokens(TokenRegistrar registrar) {
         registrar.registerToken((nibbler, tokens) -> {
-            if (!nibbler.tryConsume("<keybind;")) return false;
+            nibbler.skip(TRIGGER.length());
 
             var keybindKey = nibbler.consumeUntil('>');
             if (keybindKey == null) return false;
 
-            var binding = Arrays.stream(MinecraftClient.getInstance().options.allKeys).filter($ -> $.getTranslationKey().equals(keybindKey)).findAny();
-            if (binding.isEmpty()) return false;
+            var binding = findBinding(keybindKey);
+            if (binding == null) return false;
 
-            tokens.add(new KeybindToken(keybindKey, binding.get()));
+            tokens.add(new KeybindToken(keybindKey, binding));
             return true;
-        }, '<');
+        }, TRIGGER);
     }
 
     @Override
     public void registerNodes(NodeRegistrar registrar) {
         registrar.registerNode(
                 (parser, keybindToken, tokens) -> new KeybindNode(keybindToken.binding),
-                (token, tokens) -> token instanceof KeybindToken keybind ? keybind : null
+                KeybindToken.class
         );
     }
 
+    @Override
+    public void registerCodecs(CodecRegistrar registrar) {
+        registrar.registerCodec("keybind", KeybindNode.class, DocumentCodec.NodeCodec.of(
+                (node, output) -> output.writeString(node.binding.getTranslationKey()),
+                input -> {
+                    var translationKey = input.readString();
+
+                    var binding = findBinding(translationKey);
+                    if (binding == null) throw new IllegalArgumentException("Unknown keybinding '" + translationKey + "'");
+
+                    return new KeybindNode(binding);
+                }
+        ));
+    }
+
+    /**
+     * Look up the keybinding with the given translation key. The index
+     * backing this is rebuilt whenever the set of registered keybindings changes
+     */
+    private static @Nullable KeyBinding findBinding(String translationKey) {
+        var allKeys = MinecraftClient.getInstance().options.allKeys;
+
+        var index = keybindIndex;
+        if (index == null || index.source != allKeys || index.sourceLength != allKeys.length) {
+            keybindIndex = index = new KeybindIndex(allKeys);
+        }
+
+        return index.bindings.get(translationKey);
+    }
+
+    /**
+     * @return The translated name of the key {@code binding} is currently bound to,
+     * which is only re-translated once the binding or the active language change
+     */
+    private static String boundKeyName(KeyBinding binding) {
+        var language = Language.getInstance();
+        var boundKey = binding.getBoundKeyTranslationKey();
+
+        var cached = BOUND_KEY_NAMES.getIfPresent(binding);
+        if (cached != null && cached.language == language && cached.boundKey.equals(boundKey)) return cached.name;
+
+        var name = I18n.translate(boundKey);
+        BOUND_KEY_NAMES.put(binding, new BoundKeyName(language, boundKey, name));
+
+        return name;
+    }
+
+    private static final class KeybindIndex {
+
+        private final KeyBinding[] source;
+        private final int sourceLength;
+        private final Map<String, KeyBinding> bindings;
+
+        private KeybindIndex(KeyBinding[] source) {
+            this.source = source;
+            this.sourceLength = source.length;
+
+            this.bindings = new HashMap<>(source.length * 2);
+            for (var binding : source) {
+                this.bindings.putIfAbsent(binding.getTranslationKey(), binding);
+            }
+        }
+    }
+
+    private record BoundKeyName(Language language, String boundKey, String name) {}
+
     private static class KeybindToken extends Lexer.Token {
 
         public final KeyBinding binding;
@@ -76,7 +163,7 @@ public class KeybindFeature implements MarkdownFeature {
                             Text.translatable(this.binding.getTranslationKey())
                     ))
             ));
-            compiler.visitText(I18n.translate(this.binding.getBoundKeyTranslationKey()));
+            compiler.visitText(boundKeyName(this.binding));
         }
 
         @Override
@@ -1,9 +1,9 @@
 package io.wispforest.lavendermd.feature;
 
+import io.wispforest.lavendermd.DocumentCodec;
 import io.wispforest.lavendermd.Lexer;
 import io.wispforest.lavendermd.MarkdownFeature;
 import io.wispforest.lavendermd.Parser;
-import io.wispforest.lavendermd.compiler.MarkdownCompiler;
 import net.minecraft.text.ClickEvent;
 import net.minecraft.text.HoverEvent;
 import net.minecraft.text.Text;
@@ -18,43 +18,46 @@ public class LinkFeature implements MarkdownFeature {
     }
 
     @Override
-    public boolean supportsCompiler(MarkdownCompiler<?> compiler) {
+    public boolean supportsCompiler(Class<?> compilerClass) {
         return true;
     }
 
+    @Override
+    public Object registrationKey() {
+        return this.getClass();
+    }
+
     @Override
     public void registerTokens(TokenRegistrar registrar) {
         registrar.registerToken(Lexer.Token.lexFromChar(OpenLinkToken::new), '[');
         registrar.registerToken((nibbler, tokens) -> {
+            int start = nibbler.cursor();
+
             nibbler.skip();
             if (!nibbler.tryConsume('(')) return false;
 
             var link = nibbler.consumeUntil(')');
             if (link == null) return false;
 
-            tokens.add(new CloseLinkToken(link));
+            tokens.add(new CloseLinkToken(nibbler.consumedSince(start), link));
             return true;
         }, ']');
     }
 
     @Override
     public void registerNodes(NodeRegistrar registrar) {
-        registrar.registerNode((parser, left, tokens) -> {
-            int pointer = tokens.pointer();
-            var content = parser.parseUntil(tokens, CloseLinkToken.class);
-
-            if (tokens.peek() instanceof CloseLinkToken right) {
-                tokens.nibble();
-                return new Parser.FormattingNode(style -> style.withClickEvent(
-                        new ClickEvent(ClickEvent.Action.OPEN_URL, right.link)
-                ).withHoverEvent(
-                        new HoverEvent(HoverEvent.Action.SHOW_TEXT, Text.literal(right.link))
-                ).withColor(Formatting.BLUE)).addChild(content);
-            } else {
-                tokens.setPointer(pointer);
-                return new Parser.TextNode(left.content());
-            }
-        }, (token, tokens) -> token instanceof OpenLinkToken link ? link : null);
+        registrar.registerPairedNode(Parser.PairedDelimiter.of(
+                OpenLinkToken.class, CloseLinkToken.class,
+                (opener, closer, content) -> new LinkNode(closer.link).addChild(content)
+        ));
+    }
+
+    @Override
+    public void registerCodecs(CodecRegistrar registrar) {
+        registrar.registerCodec("link", LinkNode.class, DocumentCodec.NodeCodec.of(
+                (node, output) -> output.writeString(node.link),
+                input -> new LinkNode(input.readString())
+        ));
     }
 
     // --- tokens ---
@@ -69,8 +72,24 @@ public class LinkFeature implements MarkdownFeature {
 
         public final @NotNull String link;
 
-        public CloseLinkToken(@NotNull String link) {
-            super("](" + link + ")");
+        public CloseLinkToken(CharSequence content, @NotNull String link) {
+            super(content);
+            this.link = link;
+        }
+    }
+
+    // --- node ---
+
+    private static class LinkNode extends Parser.FormattingNode {
+
+        private final String link;
+
+        public LinkNode(String link) {
+            super(style -> style.withClickEvent(
+                    new ClickEvent(ClickEvent.Action.OPEN_URL, link)
+            ).withHoverEvent(
+                    new HoverEvent(HoverEvent.Action.SHOW_TEXT, Text.literal(link))
+            ).withColor(Formatting.BLUE));
             this.link = link;
         }
     }
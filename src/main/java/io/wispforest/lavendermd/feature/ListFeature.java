@@ -1,10 +1,10 @@
 package io.wispforest.lavendermd.feature;
 
+import io.wispforest.lavendermd.DocumentCodec;
 import io.wispforest.lavendermd.Lexer;
 import io.wispforest.lavendermd.MarkdownFeature;
 import io.wispforest.lavendermd.Parser;
 import io.wispforest.lavendermd.compiler.MarkdownCompiler;
-import io.wispforest.lavendermd.util.StringNibbler;
 
 import java.util.OptionalInt;
 
@@ -15,16 +15,21 @@ public class ListFeature implements MarkdownFeature {
     }
 
     @Override
-    public boolean supportsCompiler(MarkdownCompiler<?> compiler) {
+    public boolean supportsCompiler(Class<?> compilerClass) {
         return true;
     }
 
+    @Override
+    public Object registrationKey() {
+        return this.getClass();
+    }
+
     @Override
     public void registerTokens(TokenRegistrar registrar) {
         // unordered
         registrar.registerToken((nibbler, tokens) -> {
-            int whitespace = whitespaceSinceLineBreak(nibbler);
-            if (whitespace < 0) return false;
+            if (!nibbler.isOnlyWhitespaceSinceLineStart()) return false;
+            int whitespace = nibbler.column();
 
             nibbler.skip();
             if (!nibbler.tryConsume(' ')) return false;
@@ -35,46 +40,40 @@ public class ListFeature implements MarkdownFeature {
 
         // ordered
         registrar.registerToken((nibbler, tokens) -> {
-            int whitespace = whitespaceSinceLineBreak(nibbler);
-            if (whitespace < 0) return false;
+            if (!nibbler.isOnlyWhitespaceSinceLineStart()) return false;
+            int whitespace = nibbler.column();
 
-            var ordinal = nibbler.consumeUntilEndOr(c -> c < '0' || c > '9');
-            if (!ordinal.matches("[0-9]+") || !nibbler.tryConsume(". ")) {
+            int ordinalStart = nibbler.cursor();
+
+            int digits = nibbler.skipWhile(c -> c >= '0' && c <= '9');
+            if (digits == 0 || digits > 9 || !nibbler.tryConsume(". ")) {
                 return false;
             }
 
-            tokens.add(new ListToken(whitespace, OptionalInt.of(Integer.parseInt(ordinal))));
+            tokens.add(new ListToken(whitespace, OptionalInt.of(Integer.parseInt(nibbler.string, ordinalStart, ordinalStart + digits, 10))));
             return true;
         }, '0', '1', '2', '3', '4', '5', '6', '7', '8', '9');
     }
 
     @Override
     public void registerNodes(NodeRegistrar registrar) {
-        registrar.registerNode(
-                (parser, current, tokens) -> new ListNode(current.ordinal).addChild(parser.parseUntil(tokens, $ -> $.isBoundary() && !($ instanceof ListToken list && list.depth > current.depth), $ -> false)),
-                (token, tokens) -> token instanceof ListToken list ? list : null
-        );
+        registrar.registerContainerNode(new Parser.Container<>(
+                ListToken.class, (current, tokens) -> true,
+                (current, token) -> token.isBoundary() && !(token instanceof ListToken list && list.depth > current.depth),
+                (current, token) -> false,
+                (current, content) -> new ListNode(current.ordinal).addChild(content)
+        ));
     }
 
-    private static int whitespaceSinceLineBreak(StringNibbler nibbler) {
-        int offset = 1;
-        int whitespace = 0;
-
-        while (nibbler.cursor() - offset >= 0) {
-            //noinspection DataFlowIssue
-            char current = nibbler.peekOffset(-offset);
-            if (current == '\n') return whitespace;
-
-            if (Character.isWhitespace(current)) {
-                whitespace++;
-            } else {
-                return -1;
-            }
-
-            offset++;
-        }
-
-        return whitespace;
+    @Override
+    public void registerCodecs(CodecRegistrar registrar) {
+        registrar.registerCodec("list_item", ListNode.class, DocumentCodec.NodeCodec.of(
+                (node, output) -> {
+                    output.writeBoolean(node.ordinal.isPresent());
+                    if (node.ordinal.isPresent()) output.writeVarInt(node.ordinal.getAsInt());
+                },
+                input -> new ListNode(input.readBoolean() ? OptionalInt.of(input.readVarInt()) : OptionalInt.empty())
+        ));
     }
 
     // --- token ---
@@ -12,7 +12,8 @@ import java.util.NoSuchElementException;
 public class ListNibbler<T> {
 
     private final List<T> delegate;
-    private int pointer = 0;
+    protected int pointer = 0;
+    private int rewinds = 0;
 
     public ListNibbler(List<T> delegate) {
         this.delegate = delegate;
@@ -23,8 +24,8 @@ public class ListNibbler<T> {
      * list, or {@code null} if the list is exhausted
      */
     public T nibble() {
-        return this.pointer < this.delegate.size()
-                ? this.delegate.get(this.pointer++)
+        return this.isInRange(this.pointer)
+                ? this.elementAt(this.pointer++)
                 : null;
     }
 
@@ -33,7 +34,7 @@ public class ListNibbler<T> {
      */
     public void skip(int elements) {
         this.pointer += elements;
-        if (this.pointer > this.delegate.size()) throw new NoSuchElementException();
+        if (this.pointer > 0 && !this.isInRange(this.pointer - 1)) throw new NoSuchElementException();
     }
 
     /**
@@ -49,8 +50,8 @@ public class ListNibbler<T> {
      */
     public T peek(int offset) {
         int index = this.pointer + offset;
-        return index >= 0 && index < this.delegate.size()
-                ? this.delegate.get(index)
+        return this.isInRange(index)
+                ? this.elementAt(index)
                 : null;
     }
 
@@ -58,7 +59,7 @@ public class ListNibbler<T> {
      * @return {@code true} if this nibbler has more elements to consume
      */
     public boolean hasElements() {
-        return this.pointer < this.delegate.size();
+        return this.isInRange(this.pointer);
     }
 
     /**
@@ -73,7 +74,40 @@ public class ListNibbler<T> {
      * to {@code pointer}, without any validation
      */
     public void setPointer(int pointer) {
+        if (pointer < this.pointer) this.rewinds++;
         this.pointer = pointer;
     }
 
+    /**
+     * @return How often the element pointer of this
+     * nibbler has been moved back via {@link #setPointer(int)}
+     */
+    public int rewinds() {
+        return this.rewinds;
+    }
+
+    /**
+     * Signal that the elements before this nibbler's element pointer will not
+     * be consumed again, and thus need not be retained. List-backed nibblers
+     * keep their entire list regardless, so this does nothing by default
+     *
+     * @see StreamingListNibbler
+     */
+    public void discardConsumed() {}
+
+    /**
+     * @return {@code true} if {@code index} is a valid
+     * index into this nibbler's underlying list
+     */
+    protected boolean isInRange(int index) {
+        return index >= 0 && index < this.delegate.size();
+    }
+
+    /**
+     * @return The element at {@code index} in this nibbler's underlying list,
+     * only called after {@link #isInRange(int)} returned {@code true} for {@code index}
+     */
+    protected T elementAt(int index) {
+        return this.delegate.get(index);
+    }
 }
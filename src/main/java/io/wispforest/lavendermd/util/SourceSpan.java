@@ -0,0 +1,101 @@
+package io.wispforest.lavendermd.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A lazy, read-only view of the range {@code [start, end)}
+ * of some source string. The characters are only copied
+ * out of the source once {@link #toString()} is invoked
+ */
+public final class SourceSpan implements CharSequence {
+
+    private final String source;
+    private final int start, end;
+
+    private @Nullable String string = null;
+
+    public SourceSpan(String source, int start, int end) {
+        if (start < 0 || end > source.length() || start > end) {
+            throw new IndexOutOfBoundsException("Span [" + start + ", " + end + ") is out of bounds for length " + source.length());
+        }
+
+        this.source = source;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * @return A span covering the entirety of {@code source}
+     */
+    public static SourceSpan of(String source) {
+        return new SourceSpan(source, 0, source.length());
+    }
+
+    /**
+     * @return The string this span is a view of
+     */
+    public String source() {
+        return this.source;
+    }
+
+    /**
+     * @return The index in the source string at which this span starts (inclusive)
+     */
+    public int start() {
+        return this.start;
+    }
+
+    /**
+     * @return The index in the source string at which this span ends (exclusive)
+     */
+    public int end() {
+        return this.end;
+    }
+
+    /**
+     * @return A view of this span with all leading whitespace removed
+     */
+    public SourceSpan stripLeading() {
+        int start = this.start;
+        while (start < this.end && Character.isWhitespace(this.source.charAt(start))) start++;
+
+        return start == this.start ? this : new SourceSpan(this.source, start, this.end);
+    }
+
+    /**
+     * @return A view of this span with all trailing whitespace removed
+     */
+    public SourceSpan stripTrailing() {
+        int end = this.end;
+        while (end > this.start && Character.isWhitespace(this.source.charAt(end - 1))) end--;
+
+        return end == this.end ? this : new SourceSpan(this.source, this.start, end);
+    }
+
+    @Override
+    public int length() {
+        return this.end - this.start;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= this.length()) throw new IndexOutOfBoundsException(index);
+        return this.source.charAt(this.start + index);
+    }
+
+    @Override
+    public @NotNull SourceSpan subSequence(int start, int end) {
+        if (start < 0 || end > this.length() || start > end) throw new IndexOutOfBoundsException();
+        return new SourceSpan(this.source, this.start + start, this.start + end);
+    }
+
+    @Override
+    public @NotNull String toString() {
+        if (this.string == null) {
+            this.string = this.source.substring(this.start, this.end);
+        }
+
+        return this.string;
+    }
+}
@@ -0,0 +1,95 @@
+package io.wispforest.lavendermd.util;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A {@link ListNibbler} which pulls its elements lazily from an iterator
+ * instead of a fully materialized list. Elements are kept in a ring buffer
+ * which only retains what has been pulled since the last call
+ * to {@link #discardConsumed()}, plus a fixed amount of lookbehind
+ * <p>
+ * Rewinding the element pointer via {@link #setPointer(int)} is allowed as far
+ * back as the retained window reaches - accessing an element before
+ * that window throws {@link IllegalStateException}
+ */
+public class StreamingListNibbler<T> extends ListNibbler<T> {
+
+    private final Iterator<T> source;
+    private final int lookbehind;
+
+    private Object[] buffer;
+    private int bufferStart = 0, bufferEnd = 0;
+
+    /**
+     * @param initialCapacity The initial size of the ring buffer, which grows
+     *                        if the retained window ever exceeds it. Rounded up to
+     *                        the next power of two
+     * @param lookbehind      The amount of elements before the element pointer
+     *                        which remain accessible after {@link #discardConsumed()}
+     */
+    public StreamingListNibbler(Iterator<T> source, int initialCapacity, int lookbehind) {
+        super(List.of());
+        this.source = source;
+        this.lookbehind = lookbehind;
+        this.buffer = new Object[Math.max(2, Integer.highestOneBit(Math.max(initialCapacity, 1) - 1) << 1)];
+    }
+
+    public StreamingListNibbler(Iterator<T> source) {
+        this(source, 64, 4);
+    }
+
+    @Override
+    public void discardConsumed() {
+        int retainFrom = Math.min(Math.max(this.bufferStart, this.pointer - this.lookbehind), this.bufferEnd);
+
+        for (int i = this.bufferStart; i < retainFrom; i++) {
+            this.buffer[i & (this.buffer.length - 1)] = null;
+        }
+
+        this.bufferStart = retainFrom;
+    }
+
+    /**
+     * @return The amount of elements currently held in this nibbler's buffer
+     */
+    public int retained() {
+        return this.bufferEnd - this.bufferStart;
+    }
+
+    @Override
+    protected boolean isInRange(int index) {
+        if (index < 0) return false;
+
+        while (index >= this.bufferEnd && this.source.hasNext()) {
+            this.pull();
+        }
+
+        if (index >= this.bufferEnd) return false;
+        if (index < this.bufferStart) {
+            throw new IllegalStateException("Element " + index + " has already been discarded, retained window starts at " + this.bufferStart);
+        }
+
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected T elementAt(int index) {
+        return (T) this.buffer[index & (this.buffer.length - 1)];
+    }
+
+    private void pull() {
+        if (this.bufferEnd - this.bufferStart == this.buffer.length) {
+            var grown = new Object[this.buffer.length * 2];
+            for (int i = this.bufferStart; i < this.bufferEnd; i++) {
+                grown[i & (grown.length - 1)] = this.buffer[i & (this.buffer.length - 1)];
+            }
+
+            this.buffer = grown;
+        }
+
+        this.buffer[this.bufferEnd & (this.buffer.length - 1)] = this.source.next();
+        this.bufferEnd++;
+    }
+}
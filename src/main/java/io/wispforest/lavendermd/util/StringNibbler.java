@@ -3,6 +3,7 @@ package io.wispforest.lavendermd.util;
 import net.minecraft.util.function.CharPredicate;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Arrays;
 import java.util.function.Predicate;
 
 /**
@@ -11,25 +12,87 @@ import java.util.function.Predicate;
  * <p>
  * Very useful for lexing strings, essentially a more advanced version of
  * Brigadier's {@link com.mojang.brigadier.StringReader}
+ * <p>
+ * For hot lexing paths, prefer the primitive functions ({@link #read()}, {@link #peekAt(int)},
+ * {@link #mark()}/{@link #reset(int)} and the range-returning skip functions) - they
+ * never box characters nor require allocating a matcher lambda
  */
 public class StringNibbler {
 
+    /**
+     * Returned by the primitive functions of this nibbler
+     * in place of a character if the index in question is out of range
+     */
+    public static final int EOF = -1;
+
     public final String string;
     private int cursor;
 
+    // the window of the string inspected through this nibbler, which only
+    // editing sessions need - all other nibblers skip the bookkeeping
+    private final boolean trackReads;
+    private int lowestRead = Integer.MAX_VALUE, highestRead = -1;
+    private int rewinds = 0;
+
+    // lazily built index over a contiguous run of lines,
+    // storing for each line where it starts and where its
+    // first non-whitespace character is (or where it ends, if it has none)
+    private int[] lineStarts = null, contentStarts = null;
+    private int indexedLines = 0, indexedEnd = -1;
+
+    // lazily built index of delimiter occurrences - for every delimiter that
+    // has been searched for, the sorted positions at which it occurs in the
+    // window of the string which has been scanned for it so far
+    private DelimiterIndex[] delimiterIndices = new DelimiterIndex[0];
+
     public StringNibbler(String string) {
+        this(string, false);
+    }
+
+    /**
+     * @param trackReads Whether to track the window of {@code string} which is
+     *                   inspected through this nibbler, see {@link #lowestRead()}
+     */
+    public StringNibbler(String string, boolean trackReads) {
         this.string = string;
+        this.trackReads = trackReads;
     }
 
     public int cursor() {
         return this.cursor;
     }
 
+    /**
+     * @return The current cursor, which can be restored later
+     * by passing it to {@link #reset(int)}
+     */
+    public int mark() {
+        return this.cursor;
+    }
+
+    /**
+     * Restore the cursor to {@code mark}, as previously
+     * returned by {@link #mark()}
+     */
+    public void reset(int mark) {
+        if (mark < this.cursor) this.rewinds++;
+        this.cursor = mark;
+    }
+
+    /**
+     * @return How often the cursor of this nibbler has been moved back, either
+     * by {@link #reset(int)} or by a matcher failing in {@link #tryMatch(Predicate)}
+     */
+    public int rewinds() {
+        return this.rewinds;
+    }
+
     /**
      * @return The character at this nibbler's cursor
      * in the underlying string
      */
     public char peek() {
+        this.markRead(this.cursor);
         return this.string.charAt(this.cursor);
     }
 
@@ -54,7 +117,17 @@ public class StringNibbler {
      * no more characters to consume
      */
     public @Nullable Character next() {
-        return this.cursor < this.string.length() ? this.string.charAt(this.cursor++) : null;
+        int next = this.read();
+        return next != EOF ? (char) next : null;
+    }
+
+    /**
+     * Consume the character at this nibbler's cursor in the underlying
+     * string, or return {@link #EOF} if there are no more characters to consume
+     */
+    public int read() {
+        this.markRead(this.cursor);
+        return this.cursor < this.string.length() ? this.string.charAt(this.cursor++) : EOF;
     }
 
     /**
@@ -62,13 +135,24 @@ public class StringNibbler {
      * which has already been consumed
      */
     public String consumed() {
+        this.markRead(0);
         return this.string.substring(0, this.cursor);
     }
 
+    /**
+     * @return A lazy view of the part of this nibbler's underlying
+     * string between {@code start} and the cursor
+     */
+    public SourceSpan consumedSince(int start) {
+        this.markRead(start);
+        return new SourceSpan(this.string, start, this.cursor);
+    }
+
     /**
      * @return {@code true} if this nibbler has more characters to consume
      */
     public boolean hasNext() {
+        this.markRead(this.cursor);
         return this.cursor < this.string.length();
     }
 
@@ -77,8 +161,203 @@ public class StringNibbler {
      * in the underlying string, or {@code null} if that index is out of range
      */
     public @Nullable Character peekOffset(int offset) {
+        int peeked = this.peekAt(offset);
+        return peeked != EOF ? (char) peeked : null;
+    }
+
+    /**
+     * @return The character at this nibbler's cursor + {@code offset} in
+     * the underlying string, or {@link #EOF} if that index is out of range
+     */
+    public int peekAt(int offset) {
         int charIndex = this.cursor + offset;
-        return charIndex >= 0 && charIndex < this.string.length() ? this.string.charAt(charIndex) : null;
+        this.markRead(charIndex);
+
+        return charIndex >= 0 && charIndex < this.string.length() ? this.string.charAt(charIndex) : EOF;
+    }
+
+    /**
+     * @return The index in the underlying string at which
+     * the line containing this nibbler's cursor begins
+     */
+    public int lineStart() {
+        // indexing may allocate the array, so it must happen before the array is read
+        int line = this.indexLine(this.cursor);
+        int lineStart = this.lineStarts[line];
+
+        this.markRead(lineStart - 1);
+        this.markRead(this.cursor - 1);
+
+        return lineStart;
+    }
+
+    /**
+     * @return The offset of this nibbler's cursor from the start of its line
+     */
+    public int column() {
+        return this.cursor - this.lineStart();
+    }
+
+    /**
+     * @return {@code true} if there are only whitespace characters
+     * between the start of the cursor's line and the cursor
+     */
+    public boolean isOnlyWhitespaceSinceLineStart() {
+        int line = this.indexLine(this.cursor);
+
+        this.markRead(this.lineStarts[line] - 1);
+        this.markRead(this.cursor - 1);
+
+        return this.cursor <= this.contentStarts[line];
+    }
+
+    /**
+     * Extend the line index as far as required for {@code index}
+     * and return the line in the index which contains it
+     */
+    private int indexLine(int index) {
+        if (this.lineStarts == null || index < this.lineStarts[0]) {
+            int lineStart = Math.min(index, this.string.length());
+            while (lineStart > 0 && this.string.charAt(lineStart - 1) != '\n') lineStart--;
+
+            this.lineStarts = new int[16];
+            this.contentStarts = new int[16];
+            this.indexedLines = 0;
+            this.appendLine(lineStart);
+        }
+
+        while (index > this.indexedEnd && this.indexedEnd < this.string.length()) {
+            this.appendLine(this.indexedEnd + 1);
+        }
+
+        int low = 0, high = this.indexedLines - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (this.lineStarts[mid] <= index) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        return low;
+    }
+
+    private void appendLine(int lineStart) {
+        if (this.indexedLines == this.lineStarts.length) {
+            this.lineStarts = Arrays.copyOf(this.lineStarts, this.indexedLines * 2);
+            this.contentStarts = Arrays.copyOf(this.contentStarts, this.indexedLines * 2);
+        }
+
+        int contentStart = lineStart;
+        while (contentStart < this.string.length() && this.string.charAt(contentStart) != '\n' && Character.isWhitespace(this.string.charAt(contentStart))) {
+            contentStart++;
+        }
+
+        int lineEnd = this.string.indexOf('\n', contentStart);
+
+        this.lineStarts[this.indexedLines] = lineStart;
+        this.contentStarts[this.indexedLines] = contentStart;
+        this.indexedLines++;
+
+        this.indexedEnd = lineEnd == -1 ? this.string.length() : lineEnd;
+    }
+
+    /**
+     * @return The index of the next occurrence of {@code delimiter} at or
+     * after this nibbler's cursor, or {@code -1} if there is none
+     */
+    public int nextIndexOf(char delimiter) {
+        return this.nextIndexOf(delimiter, this.cursor);
+    }
+
+    /**
+     * @return The index of the next occurrence of {@code delimiter} at or
+     * after {@code from} in the underlying string, or {@code -1} if there is none
+     * <p>
+     * Occurrences are indexed lazily, over a contiguous window which starts at the first
+     * position queried and extends only as far as queries have had to look - this way, repeatedly
+     * looking for a delimiter which does not occur does not rescan the rest of the string, while
+     * a nibbler which only lexes part of the string never scans much more than that part
+     */
+    public int nextIndexOf(char delimiter, int from) {
+        var index = this.delimiterIndex(delimiter, from);
+        this.markRead(from);
+
+        // the window must stay contiguous, so a query
+        // before it starts over from the queried position
+        if (from < index.start) {
+            index.start = index.end = from;
+            index.count = 0;
+        }
+
+        int low = 0, high = index.count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (index.positions[mid] < from) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        int result = low < index.count ? index.positions[low] : index.extendPast(this.string, from);
+        this.markRead(result == -1 ? this.string.length() : result);
+
+        return result;
+    }
+
+    private DelimiterIndex delimiterIndex(char delimiter, int from) {
+        for (var index : this.delimiterIndices) {
+            if (index.delimiter == delimiter) return index;
+        }
+
+        var index = new DelimiterIndex(delimiter, from);
+
+        this.delimiterIndices = Arrays.copyOf(this.delimiterIndices, this.delimiterIndices.length + 1);
+        this.delimiterIndices[this.delimiterIndices.length - 1] = index;
+
+        return index;
+    }
+
+    private static final class DelimiterIndex {
+
+        private final char delimiter;
+
+        // the window [start, end) which has been scanned
+        // and the positions of all occurrences within it
+        private int start, end;
+        private int[] positions = new int[8];
+        private int count = 0;
+
+        private DelimiterIndex(char delimiter, int start) {
+            this.delimiter = delimiter;
+            this.start = this.end = start;
+        }
+
+        /**
+         * Scan forward from the end of the window until the first
+         * occurrence at or after {@code from}, or the end of {@code string}
+         *
+         * @return The index of that occurrence, or {@code -1} if there is none
+         */
+        private int extendPast(String string, int from) {
+            while (this.end < string.length()) {
+                int next = string.indexOf(this.delimiter, this.end);
+                if (next == -1) {
+                    this.end = string.length();
+                    break;
+                }
+
+                if (this.count == this.positions.length) this.positions = Arrays.copyOf(this.positions, this.count * 2);
+                this.positions[this.count++] = next;
+                this.end = next + 1;
+
+                if (next >= from) return next;
+            }
+
+            return -1;
+        }
     }
 
     /**
@@ -87,20 +366,28 @@ public class StringNibbler {
      * {@code allowUnterminated} is false, the consumed substring otherwise
      */
     public @Nullable String consumeEscapedString(char terminator, boolean allowUnterminated) {
-        var read = new StringBuilder();
-        while (this.hasNext()) {
-            char next = this.next();
+        int start = this.cursor;
+
+        // only start copying once an escape
+        // makes a contiguous substring impossible
+        StringBuilder read = null;
+
+        int next;
+        while ((next = this.read()) != EOF) {
             if (next == '\\' && this.expect(0, terminator)) {
+                if (read == null) read = new StringBuilder().append(this.string, start, this.cursor - 1);
+
                 this.skip();
                 read.append(terminator);
             } else if (next == terminator) {
-                return read.toString();
-            } else {
-                read.append(next);
+                return read != null ? read.toString() : this.string.substring(start, this.cursor - 1);
+            } else if (read != null) {
+                read.append((char) next);
             }
         }
 
-        return allowUnterminated ? read.toString() : null;
+        if (!allowUnterminated) return null;
+        return read != null ? read.toString() : this.string.substring(start, this.cursor);
     }
 
     /**
@@ -116,23 +403,27 @@ public class StringNibbler {
      * the cursor on the character immediately following the delimiter
      */
     public @Nullable String consumeUntil(char delimiter, boolean skipDelimiter) {
-        var read = new StringBuilder();
-        if (this.tryMatch($ -> {
-            while (this.hasNext()) {
-                if (this.peek() == delimiter) {
-                    if (skipDelimiter) this.skip();
-                    return true;
-                }
+        int delimiterIndex = this.nextIndexOf(delimiter);
 
-                read.append(this.next());
-            }
+        if (delimiterIndex == -1) return null;
 
-            return false;
-        })) {
-            return read.toString();
-        } else {
-            return null;
-        }
+        var read = this.string.substring(this.cursor, delimiterIndex);
+        this.cursor = skipDelimiter ? delimiterIndex + 1 : delimiterIndex;
+
+        return read;
+    }
+
+    /**
+     * Advance the cursor up to but not including the next occurrence of
+     * {@code delimiter}. If there is none, leave the cursor untouched
+     *
+     * @return The index of the delimiter in the underlying string, which
+     * is also the end of the skipped range, or {@code -1} if there is no delimiter
+     */
+    public int skipTo(char delimiter) {
+        int delimiterIndex = this.nextIndexOf(delimiter);
+        if (delimiterIndex != -1) this.cursor = delimiterIndex;
+        return delimiterIndex;
     }
 
     /**
@@ -141,12 +432,27 @@ public class StringNibbler {
      * the entire rest of the underlying string
      */
     public String consumeUntilEndOr(CharPredicate until) {
-        var read = new StringBuilder();
+        int start = this.cursor;
         while (this.hasNext() && !until.test(this.peek())) {
-            read.append(this.next());
+            this.cursor++;
+        }
+
+        return this.string.substring(start, this.cursor);
+    }
+
+    /**
+     * Advance the cursor past all characters matched by {@code predicate},
+     * without copying them
+     *
+     * @return The amount of characters skipped
+     */
+    public int skipWhile(CharPredicate predicate) {
+        int start = this.cursor;
+        while (this.hasNext() && predicate.test(this.peek())) {
+            this.cursor++;
         }
 
-        return read.toString();
+        return this.cursor - start;
     }
 
     /**
@@ -156,18 +462,33 @@ public class StringNibbler {
      */
     public boolean expect(int offset, char expect) {
         int charIndex = this.cursor + offset;
+        this.markRead(charIndex);
+
         return charIndex >= 0 && charIndex < this.string.length() && this.string.charAt(charIndex) == expect;
     }
 
+    /**
+     * Return {@code true} if the substring {@code expect} is found to begin at this nibbler's
+     * cursor + {@code offset}. Return {@code false} if it is not or that index is out of range
+     */
+    public boolean expect(int offset, String expect) {
+        int charIndex = this.cursor + offset;
+        this.markRead(charIndex);
+        this.markRead(charIndex + expect.length() - 1);
+
+        return charIndex >= 0 && this.string.startsWith(expect, charIndex);
+    }
+
     /**
      * Return {@code true} and advance the cursor if the character at
      * this nibbler's cursor if equal to {@code consume}
      */
     public boolean tryConsume(char consume) {
-        return tryMatch($ -> {
-            var next = next();
-            return next != null && next == consume;
-        });
+        this.markRead(this.cursor);
+        if (this.cursor >= this.string.length() || this.string.charAt(this.cursor) != consume) return false;
+
+        this.cursor++;
+        return true;
     }
 
     /**
@@ -175,28 +496,68 @@ public class StringNibbler {
      * is found to begin at this nibbler's cursor
      */
     public boolean tryConsume(String consume) {
-        return this.tryMatch(stringNibbler -> {
-            for (int i = 0; i < consume.length(); i++) {
-                var next = this.next();
-                if (next == null || next != consume.charAt(i)) return false;
-            }
+        this.markRead(this.cursor);
+        this.markRead(this.cursor + consume.length() - 1);
 
-            return true;
-        });
+        if (!this.string.startsWith(consume, this.cursor)) return false;
+
+        this.cursor += consume.length();
+        return true;
     }
 
     /**
      * Return {@code true} if {@code matcher} returns {@code true} when invoked
      * on this nibbler instance. Otherwise, return {@code false} and revert
      * the nibbler's cursor to its position before calling {@code matcher}
+     *
+     * @see #mark()
+     * @see #reset(int)
      */
     public boolean tryMatch(Predicate<StringNibbler> matcher) {
         int cursorPos = this.cursor;
         if (!matcher.test(this)) {
+            if (cursorPos < this.cursor) this.rewinds++;
             this.cursor = cursorPos;
             return false;
         } else {
             return true;
         }
     }
+
+    /**
+     * Reset the window tracked by {@link #lowestRead()} and {@link #highestRead()}
+     */
+    public void resetReadWindow() {
+        this.lowestRead = Integer.MAX_VALUE;
+        this.highestRead = -1;
+    }
+
+    /**
+     * @return The lowest index in the underlying string inspected through this
+     * nibbler since the last call to {@link #resetReadWindow()}, where {@code -1} means
+     * the start of the string itself was probed. Only tracked if this nibbler was
+     * created with {@code trackReads}
+     */
+    public int lowestRead() {
+        return this.lowestRead;
+    }
+
+    /**
+     * @return The highest index in the underlying string inspected through this
+     * nibbler since the last call to {@link #resetReadWindow()}, where the length
+     * of the string means its end was probed. Only tracked if this nibbler was
+     * created with {@code trackReads}
+     */
+    public int highestRead() {
+        return this.highestRead;
+    }
+
+    private void markRead(int index) {
+        if (!this.trackReads) return;
+
+        index = Math.max(-1, Math.min(index, this.string.length()));
+
+        if (index < this.lowestRead) this.lowestRead = index;
+        if (index > this.highestRead) this.highestRead = index;
+    }
 }
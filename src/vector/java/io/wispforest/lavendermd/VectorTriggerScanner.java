@@ -0,0 +1,125 @@
+package io.wispforest.lavendermd;
+
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * SIMD backend for finding the next trigger character in a run of plain text.
+ * The trigger set is compiled into a short list of single-character and range
+ * comparisons, which are then applied to as many characters at once as the
+ * preferred vector shape of the platform allows
+ * <p>
+ * This class lives in its own source set, as it is the only one compiled against
+ * the incubating {@code jdk.incubator.vector} module. {@link Lexer} only loads
+ * it, reflectively, if that module is present at runtime
+ */
+final class VectorTriggerScanner implements Lexer.CompiledTriggers {
+
+    /**
+     * Inputs shorter than this are not worth copying into a
+     * {@code char[]} and are scanned with the scalar loop instead
+     */
+    static final int MIN_INPUT_LENGTH = 256;
+
+    // past this many comparisons per vector, the scalar
+    // page lookup is usually faster than the vectorized loop
+    private static final int MAX_COMPARISONS = 24;
+
+    private static final VectorSpecies<Short> SPECIES = ShortVector.SPECIES_PREFERRED;
+
+    private final short[] singles;
+    private final short[] rangeStarts, rangeEnds;
+
+    private VectorTriggerScanner(short[] singles, short[] rangeStarts, short[] rangeEnds) {
+        this.singles = singles;
+        this.rangeStarts = rangeStarts;
+        this.rangeEnds = rangeEnds;
+    }
+
+    /**
+     * Compile {@code triggers} into a vector scanner
+     *
+     * @return The compiled scanner, or {@code null} if the trigger set is
+     * too large or fragmented to be scanned efficiently with vector comparisons
+     */
+    static @Nullable VectorTriggerScanner compile(char[] triggers) {
+        var sorted = triggers.clone();
+        Arrays.sort(sorted);
+
+        var singles = new short[sorted.length];
+        var rangeStarts = new short[sorted.length];
+        var rangeEnds = new short[sorted.length];
+        int singleCount = 0, rangeCount = 0;
+
+        for (int i = 0; i < sorted.length; ) {
+            // lanes are compared as signed shorts, so a range
+            // must not wrap around from 0x7FFF to 0x8000
+            int runEnd = i;
+            while (runEnd + 1 < sorted.length && sorted[runEnd + 1] == sorted[runEnd] + 1 && sorted[runEnd + 1] != 0x8000) {
+                runEnd++;
+            }
+
+            if (runEnd - i >= 2) {
+                rangeStarts[rangeCount] = (short) sorted[i];
+                rangeEnds[rangeCount] = (short) sorted[runEnd];
+                rangeCount++;
+            } else {
+                for (int j = i; j <= runEnd; j++) {
+                    singles[singleCount++] = (short) sorted[j];
+                }
+            }
+
+            i = runEnd + 1;
+        }
+
+        if (singleCount + rangeCount * 2 > MAX_COMPARISONS) return null;
+
+        return new VectorTriggerScanner(
+                Arrays.copyOf(singles, singleCount),
+                Arrays.copyOf(rangeStarts, rangeCount),
+                Arrays.copyOf(rangeEnds, rangeCount)
+        );
+    }
+
+    /**
+     * Create a trigger scanner over {@code input}. Whatever part of the input
+     * does not fill an entire vector is handed to {@code scalar}, as are
+     * inputs shorter than {@link #MIN_INPUT_LENGTH} altogether
+     */
+    @Override
+    public Lexer.TriggerScanner scannerFor(String input, Lexer.TriggerScanner scalar) {
+        if (input.length() < MIN_INPUT_LENGTH) return scalar;
+
+        var chars = input.toCharArray();
+        int lastVectorStart = chars.length - SPECIES.length();
+
+        return from -> {
+            int i = from;
+            for (; i <= lastVectorStart; i += SPECIES.length()) {
+                var mask = this.matches(ShortVector.fromCharArray(SPECIES, chars, i));
+                if (mask.anyTrue()) return i + mask.firstTrue();
+            }
+
+            return scalar.nextTrigger(i);
+        };
+    }
+
+    private VectorMask<Short> matches(ShortVector chars) {
+        var mask = SPECIES.maskAll(false);
+
+        for (int i = 0; i < this.singles.length; i++) {
+            mask = mask.or(chars.eq(this.singles[i]));
+        }
+
+        for (int i = 0; i < this.rangeStarts.length; i++) {
+            mask = mask.or(chars.compare(VectorOperators.GE, this.rangeStarts[i]).and(chars.compare(VectorOperators.LE, this.rangeEnds[i])));
+        }
+
+        return mask;
+    }
+}